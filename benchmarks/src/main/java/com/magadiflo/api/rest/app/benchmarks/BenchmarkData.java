@@ -0,0 +1,84 @@
+package com.magadiflo.api.rest.app.benchmarks;
+
+import com.magadiflo.api.rest.app.models.documents.Category;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.services.IImageService;
+import com.magadiflo.api.rest.app.models.services.IProductFeedService;
+import com.magadiflo.api.rest.app.models.services.IProductService;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.codec.multipart.FilePart;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Datos y servicios de prueba compartidos por los benchmarks que no levantan la aplicación completa.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    static Category category() {
+        Category category = new Category("Electrónico");
+        category.setId("64d2a1f0c2b1a34e5f6a7b8c");
+        return category;
+    }
+
+    static Product product(int index) {
+        Product product = new Product("Producto %d".formatted(index), 100.0 + index, category());
+        product.setId("64d2a1f0c2b1a34e5f6a%04x".formatted(index));
+        product.setCreateAt(LocalDate.of(2023, 8, 1));
+        product.setImage("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08.png");
+        product.setImageVariants(Map.of(
+                "128-jpeg", "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08-128.jpg",
+                "512-jpeg", "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08-512.jpg"));
+        return product;
+    }
+
+    static List<Product> products(int count) {
+        return IntStream.range(0, count).mapToObj(BenchmarkData::product).toList();
+    }
+
+    /**
+     * Servicio de productos que guarda sin tocar Mongo; el resto de métodos no se usan en los benchmarks.
+     */
+    static IProductService productService() {
+        return stub(IProductService.class, "saveProduct", args -> Mono.just(args[0]));
+    }
+
+    /**
+     * Servicio de imágenes que consume el contenido subido sin escribirlo en disco.
+     */
+    static IImageService imageService() {
+        return stub(IImageService.class, "store", args -> ((FilePart) args[0]).content()
+                .doOnNext(DataBufferUtils::release)
+                .then(Mono.just("imagen.png")));
+    }
+
+    /**
+     * El feed en vivo no participa en los benchmarks: no emite eventos.
+     */
+    static IProductFeedService productFeedService() {
+        return stub(IProductFeedService.class, "feed", args -> Flux.empty());
+    }
+
+    private static <T> T stub(Class<T> type, String methodName, Function<Object[], Object> implementation) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (instance, method, args) -> {
+            if (method.getName().equals(methodName)) {
+                return implementation.apply(args);
+            }
+            if (method.getReturnType() == void.class) {
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        return type.cast(proxy);
+    }
+}
@@ -0,0 +1,120 @@
+package com.magadiflo.api.rest.app.benchmarks;
+
+import com.magadiflo.api.rest.app.MainApplication;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.services.IProductService;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.FileSystemUtils;
+import reactor.core.publisher.Flux;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput extremo a extremo sobre Netty de los endpoints de listado y detalle, v1 (@RestController)
+ * frente a v2 (RouterFunction), con la aplicación completa arrancada contra un Mongo en memoria.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ProductEndpointsBenchmark {
+
+    private final static int PRODUCT_COUNT = 200;
+
+    private MongoServer mongoServer;
+    private Path uploadsPath;
+    private ConfigurableApplicationContext context;
+    private WebTestClient webTestClient;
+    private String productId;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.mongoServer = new MongoServer(new MemoryBackend());
+        InetSocketAddress mongoAddress = this.mongoServer.bind();
+        this.uploadsPath = Files.createTempDirectory("benchmarks-uploads");
+
+        // Argumentos de línea de comandos: tienen prioridad sobre application.properties
+        this.context = new SpringApplicationBuilder(MainApplication.class).run(
+                "--spring.data.mongodb.uri=mongodb://%s:%d/db_benchmarks".formatted(mongoAddress.getHostString(), mongoAddress.getPort()),
+                "--server.port=0",
+                "--eureka.client.enabled=false",
+                "--config.uploads.path=" + this.uploadsPath + File.separator,
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN");
+
+        int port = ((ReactiveWebServerApplicationContext) this.context).getWebServer().getPort();
+        this.webTestClient = WebTestClient.bindToServer()
+                .baseUrl("http://localhost:" + port)
+                .responseTimeout(Duration.ofSeconds(30))
+                .build();
+
+        // MainApplication ya ha cargado la semilla al terminar run(); se completa una página
+        IProductService productService = this.context.getBean(IProductService.class);
+        Product productDB = productService.findByName("Silla de oficina").block();
+        this.productId = productDB.getId();
+
+        productService.saveProducts(Flux.range(0, PRODUCT_COUNT).map(index -> new Product("Producto %d".formatted(index), 10.0 + index, productDB.getCategory())), false)
+                .blockLast();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.context.close();
+        this.mongoServer.shutdownNow();
+        FileSystemUtils.deleteRecursively(this.uploadsPath.toFile());
+    }
+
+    @Benchmark
+    public byte[] listProductsV1() {
+        return this.get("/api/v1/products");
+    }
+
+    @Benchmark
+    public byte[] listProductsV2() {
+        return this.get("/api/v2/products");
+    }
+
+    @Benchmark
+    public byte[] showProductV1() {
+        return this.get("/api/v1/products/" + this.productId);
+    }
+
+    @Benchmark
+    public byte[] showProductV2() {
+        return this.get("/api/v2/products/" + this.productId);
+    }
+
+    private byte[] get(String uri) {
+        return this.webTestClient.get()
+                .uri(uri)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+    }
+}
@@ -0,0 +1,143 @@
+package com.magadiflo.api.rest.app.benchmarks;
+
+import com.magadiflo.api.rest.app.handlers.ProductHandler;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.http.codec.multipart.MultipartHttpMessageWriter;
+import org.springframework.mock.http.client.reactive.MockClientHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.util.MultiValueMap;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caminos de ProductHandler que no dependen de Mongo: la validación de createProductWithValidation y
+ * el parseo multipart de createProductWithImage. Los servicios se sustituyen por stubs en memoria.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProductHandlerBenchmark {
+
+    private final static URI VALIDATION_URI = URI.create("/api/v2/products/create-product-with-validation");
+
+    private LocalValidatorFactoryBean validator;
+    private ProductHandler productHandler;
+    private HandlerStrategies handlerStrategies;
+
+    @Setup
+    public void setUp() {
+        this.validator = new LocalValidatorFactoryBean();
+        this.validator.afterPropertiesSet();
+        this.productHandler = new ProductHandler(BenchmarkData.productService(), BenchmarkData.imageService(),
+                BenchmarkData.productFeedService(), this.validator);
+        this.handlerStrategies = HandlerStrategies.withDefaults();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.validator.close();
+    }
+
+    @Benchmark
+    public ServerResponse createValidProduct() {
+        return this.createProductWithValidation(BenchmarkData.product(1));
+    }
+
+    @Benchmark
+    public ServerResponse rejectInvalidProduct() {
+        return this.createProductWithValidation(new Product(" ", null, null));
+    }
+
+    @Benchmark
+    public ServerResponse createProductWithImage(MultipartBody multipartBody) {
+        MockServerHttpRequest httpRequest = MockServerHttpRequest.post("/api/v2/products/product-with-image")
+                .contentType(multipartBody.contentType)
+                .body(Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(multipartBody.content)));
+        ServerRequest request = ServerRequest.create(MockServerWebExchange.from(httpRequest), this.handlerStrategies.messageReaders());
+        return this.productHandler.createProductWithImage(request).block();
+    }
+
+    private ServerResponse createProductWithValidation(Product product) {
+        MockServerRequest request = MockServerRequest.builder()
+                .uri(VALIDATION_URI)
+                .body(Mono.just(product));
+        return this.productHandler.createProductWithValidation(request).block();
+    }
+
+    @State(Scope.Benchmark)
+    public static class MultipartBody {
+
+        @Param({"16", "256"})
+        private int imageKb;
+
+        private MediaType contentType;
+        private byte[] content;
+
+        @Setup
+        public void setUp() {
+            byte[] image = new byte[this.imageKb * 1024];
+            ThreadLocalRandom.current().nextBytes(image);
+
+            MultipartBodyBuilder multipartBodyBuilder = new MultipartBodyBuilder();
+            multipartBodyBuilder.part("name", "Tv LG 70'");
+            multipartBodyBuilder.part("price", "3609.40");
+            multipartBodyBuilder.part("category.id", BenchmarkData.category().getId());
+            multipartBodyBuilder.part("category.name", BenchmarkData.category().getName());
+            multipartBodyBuilder.part("imageFile", new ByteArrayResource(image) {
+                @Override
+                public String getFilename() {
+                    return "tv.png";
+                }
+            }).contentType(MediaType.IMAGE_PNG);
+
+            // El cuerpo se codifica una sola vez; cada invocación solo mide la lectura en el servidor
+            MockClientHttpRequest clientHttpRequest = new MockClientHttpRequest(HttpMethod.POST, "/api/v2/products/product-with-image");
+            new MultipartHttpMessageWriter()
+                    .write(Mono.just(multipartBodyBuilder.build()), ResolvableType.forClass(MultiValueMap.class),
+                            MediaType.MULTIPART_FORM_DATA, clientHttpRequest, Map.of())
+                    .block();
+            this.contentType = clientHttpRequest.getHeaders().getContentType();
+            this.content = DataBufferUtils.join(clientHttpRequest.getBody())
+                    .map(dataBuffer -> {
+                        byte[] bytes = new byte[dataBuffer.readableByteCount()];
+                        dataBuffer.read(bytes);
+                        DataBufferUtils.release(dataBuffer);
+                        return bytes;
+                    })
+                    .block();
+        }
+    }
+}
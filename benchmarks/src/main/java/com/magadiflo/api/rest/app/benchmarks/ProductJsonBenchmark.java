@@ -0,0 +1,88 @@
+package com.magadiflo.api.rest.app.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.magadiflo.api.rest.app.models.documents.Category;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * (De)serialización Jackson de los documentos, con la misma configuración que aplica Spring Boot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProductJsonBenchmark {
+
+    private final static TypeReference<List<Product>> PRODUCT_LIST = new TypeReference<>() {
+    };
+
+    private ObjectMapper objectMapper;
+    private Category category;
+    private Product product;
+    private List<Product> products;
+    private byte[] categoryJson;
+    private byte[] productJson;
+    private byte[] productsJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        this.category = BenchmarkData.category();
+        this.product = BenchmarkData.product(1);
+        this.products = BenchmarkData.products(50);
+        this.categoryJson = this.objectMapper.writeValueAsBytes(this.category);
+        this.productJson = this.objectMapper.writeValueAsBytes(this.product);
+        this.productsJson = this.objectMapper.writeValueAsBytes(this.products);
+    }
+
+    @Benchmark
+    public byte[] serializeCategory() throws IOException {
+        return this.objectMapper.writeValueAsBytes(this.category);
+    }
+
+    @Benchmark
+    public Category deserializeCategory() throws IOException {
+        return this.objectMapper.readValue(this.categoryJson, Category.class);
+    }
+
+    @Benchmark
+    public byte[] serializeProduct() throws IOException {
+        return this.objectMapper.writeValueAsBytes(this.product);
+    }
+
+    @Benchmark
+    public Product deserializeProduct() throws IOException {
+        return this.objectMapper.readValue(this.productJson, Product.class);
+    }
+
+    @Benchmark
+    public byte[] serializeProductPage() throws IOException {
+        return this.objectMapper.writeValueAsBytes(this.products);
+    }
+
+    @Benchmark
+    public List<Product> deserializeProductPage() throws IOException {
+        return this.objectMapper.readValue(this.productsJson, PRODUCT_LIST);
+    }
+}
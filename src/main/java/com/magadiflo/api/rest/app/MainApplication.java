@@ -1,31 +1,33 @@
 package com.magadiflo.api.rest.app;
 
-import com.magadiflo.api.rest.app.models.documents.Category;
-import com.magadiflo.api.rest.app.models.documents.Product;
-import com.magadiflo.api.rest.app.models.services.IProductService;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.magadiflo.api.rest.app.models.repositories.config.MongoIndexInitializer;
+import com.magadiflo.api.rest.app.models.services.config.ProductSeeder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
-import reactor.core.publisher.Flux;
-
-import java.time.LocalDate;
+import reactor.core.publisher.Mono;
 
 @EnableDiscoveryClient
 @SpringBootApplication
 public class MainApplication {
 
-    private final static Logger LOG = LoggerFactory.getLogger(MainApplication.class);
-    private final IProductService productService;
     private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final MongoIndexInitializer mongoIndexInitializer;
+    private final ProductSeeder productSeeder;
+
+    // En producción (application-prod.properties) no se borran las colecciones ni se cargan datos de ejemplo
+    @Value("${config.seed.enabled}")
+    private boolean seedEnabled;
 
-    public MainApplication(IProductService productService, ReactiveMongoTemplate reactiveMongoTemplate) {
-        this.productService = productService;
+    public MainApplication(ReactiveMongoTemplate reactiveMongoTemplate, MongoIndexInitializer mongoIndexInitializer,
+                           ProductSeeder productSeeder) {
         this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.mongoIndexInitializer = mongoIndexInitializer;
+        this.productSeeder = productSeeder;
     }
 
     public static void main(String[] args) {
@@ -35,45 +37,16 @@ public class MainApplication {
     @Bean
     public CommandLineRunner run() {
         return args -> {
-            this.reactiveMongoTemplate.dropCollection("products").subscribe();
-            this.reactiveMongoTemplate.dropCollection("categories").subscribe();
-
-            Category electronico = new Category("Electrónico");
-            Category deporte = new Category("Deporte");
-            Category muebles = new Category("Muebles");
-            Category decoracion = new Category("Decoración");
-
-            Flux.just(electronico, deporte, muebles, decoracion)
-                    .flatMap(this.productService::saveCategory)
-                    .doOnNext(category -> LOG.info("Categoría creada: {}", category))
-                    .thenMany(
-                            Flux.just(
-                                            new Product("Tv LG 70'", 3609.40, electronico),
-                                            new Product("Sony Cámara HD", 680.60, electronico),
-                                            new Product("Bicicleta Monteñera", 1800.60, deporte),
-                                            new Product("Monitor 27' LG", 750.00, electronico),
-                                            new Product("Teclado Micronics", 17.00, electronico),
-                                            new Product("Celular Huawey", 900.00, electronico),
-                                            new Product("Interruptor simple", 6.00, decoracion),
-                                            new Product("Pintura Satinado", 78.00, decoracion),
-                                            new Product("Pintura Base", 10.00, decoracion),
-                                            new Product("Sillón 3 piezas", 10.00, muebles),
-                                            new Product("Separador para TV", 10.00, muebles),
-                                            new Product("Armario 2 puertas", 910.00, muebles),
-                                            new Product("Colchón Medallón 2 plazas", 710.00, muebles),
-                                            new Product("Silla de oficina", 540.00, muebles)
-                                    )
-                                    .flatMap(product -> {
-                                        product.setCreateAt(LocalDate.now());
-                                        return this.productService.saveProduct(product);
-                                    })
-
-                    )
-                    .subscribe(
-                            product -> LOG.info("Insertado: {}", product),
-                            error -> LOG.error("Error al insertar: {}", error.getMessage()),
-                            () -> LOG.info("¡Inserción completada!")
-                    );
+            if (!this.seedEnabled) {
+                this.mongoIndexInitializer.initialize().block();
+                return;
+            }
+            // Cada paso espera al anterior: los índices se crean después de borrar las colecciones (de lo contrario
+            // se perderían) y la aplicación no atiende peticiones hasta que la semilla está cargada
+            Mono.when(this.reactiveMongoTemplate.dropCollection("products"), this.reactiveMongoTemplate.dropCollection("categories"))
+                    .then(this.mongoIndexInitializer.initialize())
+                    .then(this.productSeeder.seed())
+                    .block();
         };
     }
 }
@@ -0,0 +1,107 @@
+package com.magadiflo.api.rest.app.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.reactivestreams.Publisher;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MimeType;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Formatos binarios para /api/v1 y /api/v2 (los dos comparten estos codecs) elegidos por el Accept/Content-Type:
+ * Smile (application/x-jackson-smile) y CBOR (application/cbor) con la misma configuración de Jackson que el
+ * JSON, y Protobuf (application/x-protobuf) de escritura para Product y Category. La compresión gzip/br de la
+ * respuesta la hace Netty (server.compression.*).
+ */
+@Configuration
+public class CodecConfig implements WebFluxConfigurer {
+
+    public static final MediaType APPLICATION_SMILE = new MediaType("application", "x-jackson-smile");
+    // Formatos en los que se pueden pedir los productos, en orden de preferencia cuando el Accept admite varios
+    public static final List<MediaType> PRODUCT_MEDIA_TYPES = List.of(
+            MediaType.APPLICATION_JSON, APPLICATION_SMILE, MediaType.APPLICATION_CBOR, ProductProtobufEncoder.APPLICATION_PROTOBUF);
+
+    // Sin tipos explícitos los codecs de Jackson asumen los de JSON y se quedarían también con application/json
+    private static final MimeType[] SMILE_MIME_TYPES = {APPLICATION_SMILE, new MimeType("application", "*+x-jackson-smile")};
+
+    private final ObjectMapper objectMapper;
+    private final Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+    public CodecConfig(ObjectMapper objectMapper, Jackson2ObjectMapperBuilder objectMapperBuilder) {
+        this.objectMapper = objectMapper;
+        this.objectMapperBuilder = objectMapperBuilder;
+    }
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        // Por defecto Spring registra Smile con su propio ObjectMapper, sin la configuración de Spring Boot
+        configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smileMapper(), SMILE_MIME_TYPES));
+        configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smileMapper(), SMILE_MIME_TYPES));
+        // Los codecs propios se consultan antes que los de por defecto: el JSON se registra primero para que siga
+        // siendo el formato de las peticiones sin Accept o con */*
+        configurer.customCodecs().register(new Jackson2JsonEncoder(this.objectMapper));
+        configurer.customCodecs().register(new CborEncoder(cborMapper()));
+        configurer.customCodecs().register(new Jackson2CborDecoder(cborMapper(), MediaType.APPLICATION_CBOR));
+        configurer.customCodecs().register(new ProductProtobufEncoder.HttpMessageWriter());
+    }
+
+    /**
+     * Formato de la respuesta de productos para un Accept; JSON si no admite ninguno. Se fija antes de escribir
+     * porque el ETag depende de él.
+     */
+    public static MediaType productMediaType(List<MediaType> accepted) {
+        return accepted.stream()
+                .flatMap(mediaType -> PRODUCT_MEDIA_TYPES.stream().filter(mediaType::includes))
+                .findFirst()
+                .orElse(MediaType.APPLICATION_JSON);
+    }
+
+    private ObjectMapper smileMapper() {
+        return this.objectMapperBuilder.factory(new SmileFactory()).build();
+    }
+
+    private ObjectMapper cborMapper() {
+        return this.objectMapperBuilder.factory(new CBORFactory()).build();
+    }
+
+    /**
+     * El Jackson2CborEncoder de Spring no escribe Flux: las listas de productos (páginas y búsquedas acotadas)
+     * se reúnen y se escriben como un único array CBOR.
+     */
+    private static class CborEncoder extends Jackson2CborEncoder {
+
+        CborEncoder(ObjectMapper mapper) {
+            super(mapper, MediaType.APPLICATION_CBOR);
+        }
+
+        @Override
+        public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory, ResolvableType elementType,
+                                       MimeType mimeType, Map<String, Object> hints) {
+            if (inputStream instanceof Mono<?> mono) {
+                return mono.map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints)).flux();
+            }
+            ResolvableType listType = ResolvableType.forClassWithGenerics(List.class, elementType);
+            return Flux.from(inputStream)
+                    .collectList()
+                    .map(list -> encodeValue(list, bufferFactory, listType, mimeType, hints))
+                    .flux();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.magadiflo.api.rest.app.config;
+
+import com.magadiflo.api.rest.app.models.services.IProductService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.observability.micrometer.Micrometer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.regex.Pattern;
+
+/**
+ * Las peticiones HTTP (http.server.requests), los comandos y el pool de Mongo (mongodb.driver.*) los
+ * instrumenta Spring Boot; aquí se añaden las métricas de Netty y de cada método de IProductService.
+ */
+@Configuration
+public class MetricsConfig {
+
+    private final static String PRODUCT_SERVICE_METRIC = "product.service";
+    private final static Pattern OBJECT_ID = Pattern.compile("[0-9a-fA-F]{24}");
+
+    /**
+     * Conexiones activas/totales y bytes por URI del servidor Netty (reactor.netty.http.server.*). Los ids
+     * se sustituyen en la etiqueta uri para no crear una serie por producto.
+     */
+    @Bean
+    public NettyServerCustomizer nettyServerMetricsCustomizer() {
+        return httpServer -> httpServer.metrics(true, uri -> OBJECT_ID.matcher(uri).replaceAll("{id}"));
+    }
+
+    /**
+     * Envuelve IProductService para medir cada Mono/Flux que devuelve (product.service.flow.duration y,
+     * en los Flux, product.service.onNext.delay) con el nombre del método como etiqueta.
+     */
+    @Bean
+    public static BeanPostProcessor productServiceMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof IProductService)) {
+                    return bean;
+                }
+                return Proxy.newProxyInstance(IProductService.class.getClassLoader(), new Class<?>[]{IProductService.class}, (proxy, method, args) -> {
+                    Object result;
+                    try {
+                        result = method.invoke(bean, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                    if (result instanceof Mono<?> mono) {
+                        return mono.name(PRODUCT_SERVICE_METRIC)
+                                .tag("method", method.getName())
+                                .tap(Micrometer.metrics(meterRegistry.getObject()));
+                    }
+                    if (result instanceof Flux<?> flux) {
+                        return flux.name(PRODUCT_SERVICE_METRIC)
+                                .tag("method", method.getName())
+                                .tap(Micrometer.metrics(meterRegistry.getObject()));
+                    }
+                    return result;
+                });
+            }
+        };
+    }
+}
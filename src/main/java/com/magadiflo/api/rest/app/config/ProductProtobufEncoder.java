@@ -0,0 +1,195 @@
+package com.magadiflo.api.rest.app.config;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.magadiflo.api.rest.app.models.documents.Category;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.EncodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.codec.EncoderHttpMessageWriter;
+import org.springframework.http.codec.HttpMessageEncoder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Escribe Product y Category en Protobuf según static/proto/product.proto directamente sobre
+ * CodedOutputStream, sin clases generadas ni copia intermedia. Un Flux se escribe como mensajes
+ * delimitados (longitud varint + mensaje), igual que el ProtobufEncoder de Spring.
+ */
+public class ProductProtobufEncoder implements HttpMessageEncoder<Object> {
+
+    public static final MediaType APPLICATION_PROTOBUF = new MediaType("application", "x-protobuf");
+    public static final String SCHEMA_HEADER = "X-Protobuf-Schema";
+    public static final String MESSAGE_HEADER = "X-Protobuf-Message";
+    public static final String SCHEMA = "/proto/product.proto";
+
+    private static final List<MimeType> MIME_TYPES = List.of(APPLICATION_PROTOBUF, new MediaType("application", "protobuf"));
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, MimeType mimeType) {
+        // Aceptar Object hace que Spring lo ordene con los codecs de objetos (detrás del JSON) y no delante de todos
+        Class<?> clazz = elementType.toClass();
+        return (clazz == Object.class || Product.class.isAssignableFrom(clazz) || Category.class.isAssignableFrom(clazz))
+                && (mimeType == null || MIME_TYPES.stream().anyMatch(supported -> supported.isCompatibleWith(mimeType)));
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory, ResolvableType elementType,
+                                   MimeType mimeType, Map<String, Object> hints) {
+        boolean delimited = !(inputStream instanceof Mono);
+        return Flux.from(inputStream).map(value -> encodeValue(value, bufferFactory, delimited));
+    }
+
+    @Override
+    public DataBuffer encodeValue(Object value, DataBufferFactory bufferFactory, ResolvableType valueType,
+                                  MimeType mimeType, Map<String, Object> hints) {
+        return encodeValue(value, bufferFactory, false);
+    }
+
+    @Override
+    public List<MimeType> getEncodableMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    @Override
+    public List<MediaType> getStreamingMediaTypes() {
+        // Las listas son páginas acotadas: no hace falta un flush por cada producto
+        return List.of();
+    }
+
+    private DataBuffer encodeValue(Object value, DataBufferFactory bufferFactory, boolean delimited) {
+        if (!(value instanceof Product) && !(value instanceof Category)) {
+            throw new EncodingException("Protobuf solo está disponible para Product y Category: " + value.getClass().getName());
+        }
+        int size = value instanceof Product product ? productSize(product) : categorySize((Category) value);
+        byte[] bytes = new byte[delimited ? CodedOutputStream.computeUInt32SizeNoTag(size) + size : size];
+        CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+        try {
+            if (delimited) {
+                output.writeUInt32NoTag(size);
+            }
+            if (value instanceof Product product) {
+                writeProduct(output, product);
+            } else {
+                writeCategory(output, (Category) value);
+            }
+            output.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new EncodingException("No se pudo escribir en Protobuf: " + value, e);
+        }
+        return bufferFactory.wrap(bytes);
+    }
+
+    private static void writeProduct(CodedOutputStream output, Product product) throws IOException {
+        writeString(output, 1, product.getId());
+        writeString(output, 2, product.getName());
+        if (product.getPrice() != null) {
+            output.writeDouble(3, product.getPrice());
+        }
+        if (product.getCreateAt() != null) {
+            output.writeString(4, product.getCreateAt().toString());
+        }
+        writeString(output, 5, product.getImage());
+        if (product.getImageVariants() != null) {
+            for (Map.Entry<String, String> variant : product.getImageVariants().entrySet()) {
+                output.writeTag(6, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(entrySize(variant));
+                writeString(output, 1, variant.getKey());
+                writeString(output, 2, variant.getValue());
+            }
+        }
+        if (product.getCategory() != null) {
+            output.writeTag(7, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            output.writeUInt32NoTag(categorySize(product.getCategory()));
+            writeCategory(output, product.getCategory());
+        }
+        if (product.getVersion() != null) {
+            output.writeInt64(8, product.getVersion());
+        }
+    }
+
+    private static void writeCategory(CodedOutputStream output, Category category) throws IOException {
+        writeString(output, 1, category.getId());
+        writeString(output, 2, category.getName());
+    }
+
+    private static void writeString(CodedOutputStream output, int field, String value) throws IOException {
+        if (value != null) {
+            output.writeString(field, value);
+        }
+    }
+
+    private static int productSize(Product product) {
+        int size = stringSize(1, product.getId()) + stringSize(2, product.getName());
+        if (product.getPrice() != null) {
+            size += CodedOutputStream.computeDoubleSize(3, product.getPrice());
+        }
+        if (product.getCreateAt() != null) {
+            size += CodedOutputStream.computeStringSize(4, product.getCreateAt().toString());
+        }
+        size += stringSize(5, product.getImage());
+        if (product.getImageVariants() != null) {
+            for (Map.Entry<String, String> variant : product.getImageVariants().entrySet()) {
+                size += CodedOutputStream.computeTagSize(6) + lengthDelimitedSize(entrySize(variant));
+            }
+        }
+        if (product.getCategory() != null) {
+            size += CodedOutputStream.computeTagSize(7) + lengthDelimitedSize(categorySize(product.getCategory()));
+        }
+        if (product.getVersion() != null) {
+            size += CodedOutputStream.computeInt64Size(8, product.getVersion());
+        }
+        return size;
+    }
+
+    private static int categorySize(Category category) {
+        return stringSize(1, category.getId()) + stringSize(2, category.getName());
+    }
+
+    private static int entrySize(Map.Entry<String, String> entry) {
+        return stringSize(1, entry.getKey()) + stringSize(2, entry.getValue());
+    }
+
+    private static int stringSize(int field, String value) {
+        return value == null ? 0 : CodedOutputStream.computeStringSize(field, value);
+    }
+
+    private static int lengthDelimitedSize(int size) {
+        return CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    /**
+     * Añade a la respuesta dónde está el esquema y qué mensaje contiene, como hace el
+     * ProtobufHttpMessageWriter de Spring con las clases generadas.
+     */
+    public static class HttpMessageWriter extends EncoderHttpMessageWriter<Object> {
+
+        public HttpMessageWriter() {
+            super(new ProductProtobufEncoder());
+        }
+
+        @Override
+        public Mono<Void> write(Publisher<?> inputStream, ResolvableType elementType, MediaType mediaType,
+                                ReactiveHttpOutputMessage message, Map<String, Object> hints) {
+            Class<?> clazz = elementType.toClass();
+            message.getHeaders().set(SCHEMA_HEADER, SCHEMA);
+            // Un ProjectedProduct es el mismo mensaje Product con menos campos
+            if (Product.class.isAssignableFrom(clazz)) {
+                message.getHeaders().set(MESSAGE_HEADER, "magadiflo.products.Product");
+            } else if (Category.class.isAssignableFrom(clazz)) {
+                message.getHeaders().set(MESSAGE_HEADER, "magadiflo.products.Category");
+            }
+            return super.write(inputStream, elementType, mediaType, message, hints);
+        }
+    }
+}
@@ -1,45 +1,124 @@
 package com.magadiflo.api.rest.app.controllers;
 
+import com.magadiflo.api.rest.app.config.CodecConfig;
 import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.BulkItemResult;
+import com.magadiflo.api.rest.app.models.dto.CategoryStats;
+import com.magadiflo.api.rest.app.models.dto.MonthlyStats;
+import com.magadiflo.api.rest.app.models.dto.ProductETag;
+import com.magadiflo.api.rest.app.models.dto.ProductEvent;
+import com.magadiflo.api.rest.app.models.dto.ProductFields;
+import com.magadiflo.api.rest.app.models.dto.ProductPage;
+import com.magadiflo.api.rest.app.models.exceptions.InvalidCursorException;
+import com.magadiflo.api.rest.app.models.services.IImageService;
+import com.magadiflo.api.rest.app.models.services.IProductFeedService;
 import com.magadiflo.api.rest.app.models.services.IProductService;
+import com.magadiflo.api.rest.app.ratelimit.RateLimited;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.bind.support.WebExchangeBindException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.io.File;
 import java.net.URI;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
 
 @RestController
 @RequestMapping(path = "/api/v1/products")
 public class ProductController {
+    public static final String MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+
     private final IProductService productService;
+    private final IImageService imageService;
+    private final IProductFeedService productFeedService;
 
-    @Value("${config.uploads.path}")
-    private String uploadsPath;
+    @Value("${config.images.cache-max-age}")
+    private Duration imageCacheMaxAge;
 
-    public ProductController(IProductService productService) {
+    public ProductController(IProductService productService, IImageService imageService,
+                             IProductFeedService productFeedService) {
         this.productService = productService;
+        this.imageService = imageService;
+        this.productFeedService = productFeedService;
     }
 
     @GetMapping
-    public Mono<ResponseEntity<Flux<Product>>> getAllProducts() {
-        return Mono.just(ResponseEntity.ok(this.productService.findAll()));
+    public Mono<ResponseEntity<?>> getAllProducts(@RequestParam(required = false) String cursor,
+                                                  @RequestParam(required = false) Integer size,
+                                                  @RequestParam(required = false) String fields,
+                                                  @RequestHeader HttpHeaders headers) {
+        Set<String> selectedFields = ProductFields.parse(fields);
+        MediaType mediaType = CodecConfig.productMediaType(headers.getAccept());
+
+        return this.productService.findPage(cursor, size, selectedFields)
+                .<ResponseEntity<?>>map(page -> {
+                    ResponseEntity.BodyBuilder builder = ResponseEntity.ok().contentType(mediaType).varyBy(HttpHeaders.ACCEPT)
+                            .eTag(ProductETag.of(page, mediaType, selectedFields));
+                    if (page.hasNext()) {
+                        builder.header(HttpHeaders.LINK, page.nextLink("/api/v1/products", selectedFields))
+                                .header(ProductPage.NEXT_CURSOR_HEADER, page.getNextCursor());
+                    }
+                    return builder.body(Flux.fromIterable(page.getProducts()));
+                })
+                .onErrorResume(InvalidCursorException.class, e -> Mono.just(ResponseEntity.badRequest().body(e.getMessage())));
+    }
+
+    @GetMapping(produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<Product> streamAllProducts() {
+        return this.productService.streamAll();
+    }
+
+    @GetMapping(path = "/search")
+    public Flux<Product> searchProducts(@RequestParam(required = false) String q,
+                                       @RequestParam(required = false) String category,
+                                       @RequestParam(required = false) Double minPrice,
+                                       @RequestParam(required = false) Double maxPrice,
+                                       @RequestParam(required = false) Integer limit,
+                                       @RequestParam(required = false) String fields) {
+        return this.productService.search(q, category, minPrice, maxPrice, limit, ProductFields.parse(fields));
+    }
+
+    @GetMapping(path = "/stats/categories")
+    public Flux<CategoryStats> getCategoryStats() {
+        return this.productService.findCategoryStats();
+    }
+
+    @GetMapping(path = "/stats/months")
+    public Flux<MonthlyStats> getMonthlyStats() {
+        return this.productService.findMonthlyStats();
+    }
+
+    @GetMapping(path = "/feed", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ProductEvent>> getProductFeed(@RequestParam(required = false) String category,
+                                                              @RequestParam(required = false) Set<String> fields,
+                                                              @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+        return this.productFeedService.feed(category, fields, lastEventId);
     }
 
     @GetMapping(path = "/{id}")
-    public Mono<ResponseEntity<Product>> getProduct(@PathVariable String id) {
-        return this.productService.findById(id)
-                .map(ResponseEntity::ok)
+    public Mono<ResponseEntity<Product>> getProduct(@PathVariable String id, @RequestParam(required = false) String fields,
+                                                    @RequestHeader HttpHeaders headers) {
+        Set<String> selectedFields = ProductFields.parse(fields);
+        // Con If-None-Match el ResponseEntityResultHandler responde 304 sin escribir el cuerpo; el formato se fija
+        // aquí y no en la negociación porque el ETag de JSON, Smile, CBOR y Protobuf es distinto
+        MediaType mediaType = CodecConfig.productMediaType(headers.getAccept());
+        return this.productService.findById(id, selectedFields)
+                .map(productDB -> ResponseEntity.ok().contentType(mediaType).varyBy(HttpHeaders.ACCEPT)
+                        .eTag(ProductETag.of(productDB, mediaType, selectedFields)).body(productDB))
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
@@ -83,83 +162,116 @@ public class ProductController {
         });
     }
 
+    @RateLimited("bulk")
+    @PostMapping(path = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<BulkItemResult> bulkSaveProducts(@RequestBody Flux<Product> products,
+                                                 @RequestParam(defaultValue = "true") boolean ordered) {
+        return this.productService.saveProducts(products, ordered);
+    }
+
     @PutMapping(path = "/{id}")
-    public Mono<ResponseEntity<Product>> updateProduct(@PathVariable String id, @RequestBody Product product) {
-        return this.productService.findById(id)
-                .flatMap(productDB -> {
-                    productDB.setName(product.getName());
-                    productDB.setPrice(product.getPrice());
-                    productDB.setCategory(product.getCategory());
-                    return this.productService.saveProduct(productDB);
-                })
-                .map(ResponseEntity::ok)
+    public Mono<ResponseEntity<Product>> updateProduct(@PathVariable String id, @RequestBody Product product,
+                                                       @RequestHeader HttpHeaders headers) {
+        Long expectedVersion = ProductETag.expectedVersion(headers.getOrEmpty(HttpHeaders.IF_MATCH));
+
+        return this.productService.updateProduct(id, product, expectedVersion)
+                .map(productDB -> this.writtenProduct(productDB, headers))
+                .onErrorResume(OptimisticLockingFailureException.class, e -> Mono.just(ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build()))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @PatchMapping(path = "/{id}", consumes = {MERGE_PATCH_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Mono<ResponseEntity<Product>> patchProduct(@PathVariable String id, @RequestBody Map<String, Object> patch,
+                                                      @RequestHeader HttpHeaders headers) {
+        Long expectedVersion = ProductETag.expectedVersion(headers.getOrEmpty(HttpHeaders.IF_MATCH));
+
+        return this.productService.patchProduct(id, patch, expectedVersion)
+                .map(productDB -> this.writtenProduct(productDB, headers))
+                .onErrorResume(OptimisticLockingFailureException.class, e -> Mono.just(ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build()))
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
     @DeleteMapping(path = "/{id}")
-    public Mono<ResponseEntity<Void>> deleteProduct(@PathVariable String id) {
+    public Mono<ResponseEntity<Void>> deleteProduct(@PathVariable String id, @RequestHeader HttpHeaders headers) {
+        Long expectedVersion = ProductETag.expectedVersion(headers.getOrEmpty(HttpHeaders.IF_MATCH));
+
+        return this.productService.deleteById(id, expectedVersion)
+                .map(productDB -> new ResponseEntity<Void>(HttpStatus.NO_CONTENT))
+                .onErrorResume(OptimisticLockingFailureException.class, e -> Mono.just(new ResponseEntity<Void>(HttpStatus.PRECONDITION_FAILED)))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping(path = "/{id}/image")
+    public Mono<ResponseEntity<Resource>> getImage(@PathVariable String id, @RequestParam(required = false) Integer size,
+                                                   @RequestHeader HttpHeaders headers) {
+        // ETag/Last-Modified activan el 304 y el Range lo atiende el ResourceHttpMessageWriter (sendfile)
         return this.productService.findById(id)
-                .flatMap(productDB -> this.productService.delete(productDB).then(Mono.just(true)))
-                .map(isDeleted -> new ResponseEntity<Void>(HttpStatus.NO_CONTENT))
+                .filter(productDB -> productDB.getImage() != null)
+                .flatMap(productDB -> this.imageService.findImage(this.imageService.resolveImageName(productDB, size, headers.getAccept())))
+                .map(image -> ResponseEntity.ok()
+                        .varyBy(HttpHeaders.ACCEPT)
+                        .eTag(image.getETag())
+                        .lastModified(image.getLastModified())
+                        .cacheControl(CacheControl.maxAge(this.imageCacheMaxAge).cachePublic())
+                        .contentType(image.getMediaType())
+                        .body(image.getResource()))
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
+    @RateLimited("uploads")
     @PostMapping(path = "/upload/{id}")
     public Mono<ResponseEntity<Product>> uploadImage(@PathVariable String id, @RequestPart FilePart imageFile) {
         return this.productService.findById(id)
-                .flatMap(productDB -> {
-                    String imageName = UUID.randomUUID().toString() + "-" + imageFile.filename()
-                            .replace(" ", "")
-                            .replace(":", "")
-                            .replace("\\", "");
-                    productDB.setImage(imageName);
-
-                    return imageFile.transferTo(new File(this.uploadsPath + productDB.getImage()))
-                            .then(this.productService.saveProduct(productDB));
-                })
+                .flatMap(productDB -> this.imageService.store(imageFile)
+                        .flatMap(imageName -> {
+                            productDB.setImage(imageName);
+                            productDB.setImageVariants(null);
+                            return this.productService.saveProduct(productDB);
+                        }))
+                .doOnNext(productDB -> this.imageService.generateVariants(productDB.getId(), productDB.getImage()))
                 .map(ResponseEntity::ok)
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
+    @RateLimited("uploads")
     @PostMapping(path = "/product-with-image")
     public Mono<ResponseEntity<Product>> createProductWithImage(Product product, @RequestPart FilePart imageFile) {
         if (product.getCreateAt() == null) {
             product.setCreateAt(LocalDate.now());
         }
 
-        String imageName = UUID.randomUUID().toString() + "-" + imageFile.filename()
-                .replace(" ", "")
-                .replace(":", "")
-                .replace("\\", "");
-        product.setImage(imageName);
-
-        return imageFile.transferTo(new File(this.uploadsPath + product.getImage()))
-                .then(this.productService.saveProduct(product)
-                        .map(productDB -> ResponseEntity
-                                .created(URI.create("/api/v1/products/" + productDB.getId()))
-                                .body(productDB))
-                );
+        return this.imageService.store(imageFile)
+                .flatMap(imageName -> {
+                    product.setImage(imageName);
+                    return this.productService.saveProduct(product);
+                })
+                .doOnNext(productDB -> this.imageService.generateVariants(productDB.getId(), productDB.getImage()))
+                .map(productDB -> ResponseEntity
+                        .created(URI.create("/api/v1/products/" + productDB.getId()))
+                        .body(productDB));
     }
 
+    @RateLimited("uploads")
     @PostMapping(path = "/product-with-image-validation")
     public Mono<ResponseEntity<Product>> createProductWithImageAndValidation(@Valid @RequestPart Product product, @RequestPart FilePart imageFile) {
         if (product.getCreateAt() == null) {
             product.setCreateAt(LocalDate.now());
         }
 
-        int extensionIndex = imageFile.filename().lastIndexOf(".");
-        String extension = imageFile.filename().substring(extensionIndex);
-        String imageName = "%s%s".formatted(UUID.randomUUID().toString(), extension)
-                .replace("-", "");
-
-        product.setImage(imageName);
-
-        return imageFile.transferTo(new File(this.uploadsPath + product.getImage()))
-                .then(this.productService.saveProduct(product)
-                        .map(productDB -> ResponseEntity
-                                .created(URI.create("/api/v1/products/" + productDB.getId()))
-                                .body(productDB))
-                );
+        return this.imageService.store(imageFile)
+                .flatMap(imageName -> {
+                    product.setImage(imageName);
+                    return this.productService.saveProduct(product);
+                })
+                .doOnNext(productDB -> this.imageService.generateVariants(productDB.getId(), productDB.getImage()))
+                .map(productDB -> ResponseEntity
+                        .created(URI.create("/api/v1/products/" + productDB.getId()))
+                        .body(productDB));
     }
 
+    private ResponseEntity<Product> writtenProduct(Product productDB, HttpHeaders headers) {
+        MediaType mediaType = CodecConfig.productMediaType(headers.getAccept());
+        return ResponseEntity.ok().contentType(mediaType).varyBy(HttpHeaders.ACCEPT)
+                .eTag(ProductETag.of(productDB, mediaType, null)).body(productDB);
+    }
 }
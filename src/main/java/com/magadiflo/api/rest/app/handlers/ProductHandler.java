@@ -1,9 +1,27 @@
 package com.magadiflo.api.rest.app.handlers;
 
+import com.magadiflo.api.rest.app.config.CodecConfig;
 import com.magadiflo.api.rest.app.models.documents.Category;
 import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.BulkItemResult;
+import com.magadiflo.api.rest.app.models.dto.CategoryStats;
+import com.magadiflo.api.rest.app.models.dto.MonthlyStats;
+import com.magadiflo.api.rest.app.models.dto.ProductETag;
+import com.magadiflo.api.rest.app.models.dto.ProductEvent;
+import com.magadiflo.api.rest.app.models.dto.ProductFields;
+import com.magadiflo.api.rest.app.models.dto.ProductPage;
+import com.magadiflo.api.rest.app.models.exceptions.InvalidCursorException;
+import com.magadiflo.api.rest.app.models.services.IImageService;
+import com.magadiflo.api.rest.app.models.services.IProductFeedService;
 import com.magadiflo.api.rest.app.models.services.IProductService;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.http.codec.multipart.FormFieldPart;
 import org.springframework.http.codec.multipart.Part;
@@ -13,40 +31,124 @@ import org.springframework.util.MultiValueMap;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Errors;
 import org.springframework.validation.Validator;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.io.File;
 import java.net.URI;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.function.Function;
 
 @Component
 public class ProductHandler {
 
     private final IProductService productService;
+    private final IImageService imageService;
+    private final IProductFeedService productFeedService;
     private final Validator validator;
 
-    @Value("${config.uploads.path}")
-    private String uploadsPath;
+    @Value("${config.images.cache-max-age}")
+    private Duration imageCacheMaxAge;
 
-    public ProductHandler(IProductService productService, Validator validator) {
+    public ProductHandler(IProductService productService, IImageService imageService,
+                          IProductFeedService productFeedService, Validator validator) {
         this.productService = productService;
+        this.imageService = imageService;
+        this.productFeedService = productFeedService;
         this.validator = validator;
     }
 
     public Mono<ServerResponse> listAllProducts(ServerRequest request) {
-        Flux<Product> productFlux = this.productService.findAll();
-        return ServerResponse.ok().body(productFlux, Product.class);
+        RequestPath requestPath = request.requestPath();
+        String cursor = request.queryParam("cursor").orElse(null);
+        Set<String> fields = ProductFields.parse(request.queryParam(ProductFields.PARAM).orElse(null));
+
+        return Mono.fromCallable(() -> request.queryParam("size").map(Integer::valueOf))
+                .onErrorMap(NumberFormatException.class, e -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "El tamaño de página %s no es válido".formatted(request.queryParam("size").orElse(""))))
+                .flatMap(size -> this.productService.findPage(cursor, size.orElse(null), fields))
+                .flatMap(page -> {
+                    Flux<Product> productFlux = Flux.fromIterable(page.getProducts());
+                    MediaType mediaType = productMediaType(request);
+                    if (!page.hasNext()) {
+                        return ServerResponse.ok()
+                                .contentType(mediaType)
+                                .varyBy(HttpHeaders.ACCEPT)
+                                .eTag(ProductETag.of(page, mediaType, fields))
+                                .body(productFlux, Product.class);
+                    }
+                    return ServerResponse.ok()
+                            .contentType(mediaType)
+                            .varyBy(HttpHeaders.ACCEPT)
+                            .eTag(ProductETag.of(page, mediaType, fields))
+                            .header(HttpHeaders.LINK, page.nextLink(requestPath.value(), fields))
+                            .header(ProductPage.NEXT_CURSOR_HEADER, page.getNextCursor())
+                            .body(productFlux, Product.class);
+                })
+                .onErrorResume(InvalidCursorException.class, e -> ServerResponse.badRequest().bodyValue(e.getMessage()));
+    }
+
+    public Mono<ServerResponse> streamAllProducts(ServerRequest request) {
+        MediaType mediaType = request.headers().accept().stream()
+                .filter(accepted -> accepted.equalsTypeAndSubtype(MediaType.TEXT_EVENT_STREAM))
+                .findFirst()
+                .map(accepted -> MediaType.TEXT_EVENT_STREAM)
+                .orElse(MediaType.APPLICATION_NDJSON);
+
+        return ServerResponse.ok()
+                .contentType(mediaType)
+                .body(this.productService.streamAll(), Product.class);
+    }
+
+    public Mono<ServerResponse> searchProducts(ServerRequest request) {
+        Flux<Product> productFlux = Flux.defer(() -> this.productService.search(
+                request.queryParam("q").orElse(null),
+                request.queryParam("category").orElse(null),
+                queryParam(request, "minPrice", Double::valueOf),
+                queryParam(request, "maxPrice", Double::valueOf),
+                queryParam(request, "limit", Integer::valueOf),
+                ProductFields.parse(request.queryParam(ProductFields.PARAM).orElse(null))));
+
+        return ServerResponse.ok().contentType(productMediaType(request)).body(productFlux, Product.class);
+    }
+
+    public Mono<ServerResponse> showCategoryStats(ServerRequest request) {
+        return ServerResponse.ok().body(this.productService.findCategoryStats(), CategoryStats.class);
+    }
+
+    public Mono<ServerResponse> showMonthlyStats(ServerRequest request) {
+        return ServerResponse.ok().body(this.productService.findMonthlyStats(), MonthlyStats.class);
+    }
+
+    public Mono<ServerResponse> showProductFeed(ServerRequest request) {
+        Set<String> fields = request.queryParam("fields")
+                .map(value -> Set.of(value.split(",")))
+                .orElse(null);
+        String lastEventId = request.headers().firstHeader("Last-Event-ID");
+
+        return ServerResponse.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(this.productFeedService.feed(request.queryParam("category").orElse(null), fields, lastEventId),
+                        new ParameterizedTypeReference<ServerSentEvent<ProductEvent>>() {
+                        });
     }
 
     public Mono<ServerResponse> showDetails(ServerRequest request) {
         String id = request.pathVariable("id");
-        return this.productService.findById(id)
-                .flatMap(productDB -> ServerResponse.ok().bodyValue(productDB))
+        Set<String> fields = ProductFields.parse(request.queryParam(ProductFields.PARAM).orElse(null));
+        MediaType mediaType = productMediaType(request);
+        // Con If-None-Match el ServerResponse responde 304 sin escribir el cuerpo
+        return this.productService.findById(id, fields)
+                .flatMap(productDB -> ServerResponse.ok()
+                        .contentType(mediaType)
+                        .varyBy(HttpHeaders.ACCEPT)
+                        .headers(headers -> headers.setETag(ProductETag.of(productDB, mediaType, fields)))
+                        .bodyValue(productDB))
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
 
@@ -91,28 +193,74 @@ public class ProductHandler {
                 });
     }
 
+    public Mono<ServerResponse> bulkSaveProducts(ServerRequest request) {
+        Flux<Product> productFlux = request.bodyToFlux(Product.class);
+        boolean ordered = request.queryParam("ordered").map(Boolean::parseBoolean).orElse(true);
+
+        return ServerResponse.ok().body(this.productService.saveProducts(productFlux, ordered), BulkItemResult.class);
+    }
+
     public Mono<ServerResponse> updateProduct(ServerRequest request) {
         String id = request.pathVariable("id");
-        Mono<Product> productMono = request.bodyToMono(Product.class);
-        Mono<Product> productMonoDB = this.productService.findById(id);
+        Long expectedVersion = ProductETag.expectedVersion(request.headers().header(HttpHeaders.IF_MATCH));
+        MediaType mediaType = productMediaType(request);
+
+        return request.bodyToMono(Product.class)
+                .flatMap(product -> this.productService.updateProduct(id, product, expectedVersion))
+                .flatMap(productDB -> ServerResponse.ok()
+                        .contentType(mediaType)
+                        .varyBy(HttpHeaders.ACCEPT)
+                        .headers(headers -> headers.setETag(ProductETag.of(productDB, mediaType, null)))
+                        .bodyValue(productDB))
+                .onErrorResume(OptimisticLockingFailureException.class, e -> ServerResponse.status(HttpStatus.PRECONDITION_FAILED).build())
+                .switchIfEmpty(ServerResponse.notFound().build());
+    }
 
-        return productMonoDB.zipWith(productMono, (productDB, product) -> {
-                    productDB.setName(product.getName());
-                    productDB.setPrice(product.getPrice());
-                    productDB.setCategory(product.getCategory());
-                    return productDB;
+    public Mono<ServerResponse> patchProduct(ServerRequest request) {
+        String id = request.pathVariable("id");
+        Long expectedVersion = ProductETag.expectedVersion(request.headers().header(HttpHeaders.IF_MATCH));
+        MediaType mediaType = productMediaType(request);
+
+        return request.bodyToMono(new ParameterizedTypeReference<Map<String, Object>>() {
                 })
-                .flatMap(this.productService::saveProduct)
-                .flatMap(productDB -> ServerResponse.ok().bodyValue(productDB))
+                .flatMap(patch -> this.productService.patchProduct(id, patch, expectedVersion))
+                .flatMap(productDB -> ServerResponse.ok()
+                        .contentType(mediaType)
+                        .varyBy(HttpHeaders.ACCEPT)
+                        .headers(headers -> headers.setETag(ProductETag.of(productDB, mediaType, null)))
+                        .bodyValue(productDB))
+                .onErrorResume(OptimisticLockingFailureException.class, e -> ServerResponse.status(HttpStatus.PRECONDITION_FAILED).build())
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
 
     public Mono<ServerResponse> deleteProduct(ServerRequest request) {
         String id = request.pathVariable("id");
+        Long expectedVersion = ProductETag.expectedVersion(request.headers().header(HttpHeaders.IF_MATCH));
+
+        return this.productService.deleteById(id, expectedVersion)
+                .flatMap(productDB -> ServerResponse.noContent().build())
+                .onErrorResume(OptimisticLockingFailureException.class, e -> ServerResponse.status(HttpStatus.PRECONDITION_FAILED).build())
+                .switchIfEmpty(ServerResponse.notFound().build());
+    }
 
+    public Mono<ServerResponse> showImage(ServerRequest request) {
+        String id = request.pathVariable("id");
+        Integer size;
+        try {
+            size = request.queryParam("size").map(Integer::valueOf).orElse(null);
+        } catch (NumberFormatException e) {
+            return ServerResponse.badRequest().bodyValue(e.getMessage());
+        }
         return this.productService.findById(id)
-                .flatMap(productDB -> this.productService.delete(productDB).then(Mono.just(true)))
-                .flatMap(isDeleted -> ServerResponse.noContent().build())
+                .filter(productDB -> productDB.getImage() != null)
+                .flatMap(productDB -> this.imageService.findImage(this.imageService.resolveImageName(productDB, size, request.headers().accept())))
+                .flatMap(image -> ServerResponse.ok()
+                        .varyBy(HttpHeaders.ACCEPT)
+                        .eTag(image.getETag())
+                        .lastModified(image.getLastModified())
+                        .cacheControl(CacheControl.maxAge(this.imageCacheMaxAge).cachePublic())
+                        .contentType(image.getMediaType())
+                        .body(BodyInserters.fromResource(image.getResource())))
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
 
@@ -124,17 +272,14 @@ public class ProductHandler {
                 .map(MultiValueMap::toSingleValueMap)
                 .map(stringPartMap -> stringPartMap.get("imageFile"))
                 .cast(FilePart.class)
-                .zipWith(productMonoDB, (filePart, productDB) -> {
-                    String imageName = UUID.randomUUID().toString() + "-" + filePart.filename()
-                            .replace(" ", "")
-                            .replace(":", "")
-                            .replace("\\", "");
-                    productDB.setImage(imageName);
-
-                    return filePart.transferTo(new File(this.uploadsPath + productDB.getImage()))
-                            .then(this.productService.saveProduct(productDB));
-                })
-                .flatMap(productDBMono -> ServerResponse.ok().body(productDBMono, Product.class))
+                .zipWith(productMonoDB, (filePart, productDB) -> this.imageService.store(filePart)
+                        .flatMap(imageName -> {
+                            productDB.setImage(imageName);
+                            productDB.setImageVariants(null);
+                            return this.productService.saveProduct(productDB)
+                                    .doOnNext(productSaved -> this.imageService.generateVariants(productSaved.getId(), productSaved.getImage()));
+                        }))
+                .flatMap(productDBMono -> productDBMono.flatMap(productDB -> ServerResponse.ok().bodyValue(productDB)))
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
 
@@ -161,20 +306,35 @@ public class ProductHandler {
                 .map(MultiValueMap::toSingleValueMap)
                 .map(stringPartMap -> stringPartMap.get("imageFile"))
                 .cast(FilePart.class)
-                .zipWith(productMono, (filePart, product) -> {
-                    String imageName = UUID.randomUUID().toString() + "-" + filePart.filename()
-                            .replace(" ", "")
-                            .replace(":", "")
-                            .replace("\\", "");
-                    product.setImage(imageName);
-                    product.setCreateAt(LocalDate.now());
-
-                    return filePart.transferTo(new File(this.uploadsPath + product.getImage()))
-                            .then(this.productService.saveProduct(product));
-                })
+                .zipWith(productMono, (filePart, product) -> this.imageService.store(filePart)
+                        .flatMap(imageName -> {
+                            product.setImage(imageName);
+                            product.setCreateAt(LocalDate.now());
+                            return this.productService.saveProduct(product)
+                                    .doOnNext(productSaved -> this.imageService.generateVariants(productSaved.getId(), productSaved.getImage()));
+                        }))
                 .flatMap(productDBMono -> productDBMono.flatMap(product -> ServerResponse
                         .created(URI.create(requestPath.value() + "/" + product.getId()))
                         .bodyValue(product)));
     }
-}
 
+    private static <T> T queryParam(ServerRequest request, String name, Function<String, T> parser) {
+        return request.queryParam(name)
+                .map(value -> {
+                    try {
+                        return parser.apply(value);
+                    } catch (NumberFormatException e) {
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "El parámetro %s no es válido: %s".formatted(name, value));
+                    }
+                })
+                .orElse(null);
+    }
+
+    /**
+     * Las rutas funcionales no negocian el formato con el Accept como los controladores: el primer writer que
+     * puede escribir el tipo decide. Se elige aquí entre los formatos de CodecConfig, con JSON por defecto.
+     */
+    private static MediaType productMediaType(ServerRequest request) {
+        return CodecConfig.productMediaType(request.headers().accept());
+    }
+}
@@ -1,8 +1,11 @@
 package com.magadiflo.api.rest.app.handlers.config;
 
 import com.magadiflo.api.rest.app.handlers.ProductHandler;
+import com.magadiflo.api.rest.app.ratelimit.RateLimiter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RequestPredicates;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.RouterFunctions;
@@ -12,14 +15,32 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 public class RouterFunctionConfig {
 
     @Bean
-    public RouterFunction<ServerResponse> routes(ProductHandler productHandler) {
-        return RouterFunctions.route(RequestPredicates.GET("/api/v2/products").or(RequestPredicates.GET("/api/v3/products")), productHandler::listAllProducts)
+    public RouterFunction<ServerResponse> routes(ProductHandler productHandler, RateLimiter rateLimiter) {
+        return RouterFunctions.route(RequestPredicates.GET("/api/v2/products").and(acceptsStreaming()), productHandler::streamAllProducts)
+                .andRoute(RequestPredicates.GET("/api/v2/products").or(RequestPredicates.GET("/api/v3/products")), productHandler::listAllProducts)
+                .andRoute(RequestPredicates.GET("/api/v2/products/search"), productHandler::searchProducts)
+                .andRoute(RequestPredicates.GET("/api/v2/products/stats/categories"), productHandler::showCategoryStats)
+                .andRoute(RequestPredicates.GET("/api/v2/products/stats/months"), productHandler::showMonthlyStats)
+                .andRoute(RequestPredicates.GET("/api/v2/products/feed"), productHandler::showProductFeed)
                 .andRoute(RequestPredicates.GET("/api/v2/products/{id}"), productHandler::showDetails)
+                .andRoute(RequestPredicates.GET("/api/v2/products/{id}/image"), productHandler::showImage)
                 .andRoute(RequestPredicates.POST("/api/v2/products"), productHandler::createProduct)
                 .andRoute(RequestPredicates.POST("/api/v2/products/create-product-with-validation"), productHandler::createProductWithValidation)
                 .andRoute(RequestPredicates.PUT("/api/v2/products/{id}"), productHandler::updateProduct)
+                .andRoute(RequestPredicates.PATCH("/api/v2/products/{id}"), productHandler::patchProduct)
                 .andRoute(RequestPredicates.DELETE("/api/v2/products/{id}"), productHandler::deleteProduct)
-                .andRoute(RequestPredicates.POST("/api/v2/products/upload/{id}"), productHandler::uploadImageFile)
-                .andRoute(RequestPredicates.POST("/api/v2/products/product-with-image"), productHandler::createProductWithImage);
+                .and(RouterFunctions.route(RequestPredicates.POST("/api/v2/products/bulk"), productHandler::bulkSaveProducts)
+                        .filter(rateLimiter.filter("bulk")))
+                .and(RouterFunctions.route(RequestPredicates.POST("/api/v2/products/upload/{id}"), productHandler::uploadImageFile)
+                        .andRoute(RequestPredicates.POST("/api/v2/products/product-with-image"), productHandler::createProductWithImage)
+                        .filter(rateLimiter.filter("uploads")));
+    }
+
+    // RequestPredicates.accept(...) también coincide con el comodín "*/*", así que solo se considera
+    // streaming cuando el cliente pide explícitamente NDJSON o SSE.
+    private static RequestPredicate acceptsStreaming() {
+        return request -> request.headers().accept().stream()
+                .anyMatch(mediaType -> mediaType.equalsTypeAndSubtype(MediaType.APPLICATION_NDJSON) ||
+                                       mediaType.equalsTypeAndSubtype(MediaType.TEXT_EVENT_STREAM));
     }
 }
@@ -2,6 +2,7 @@ package com.magadiflo.api.rest.app.models.documents;
 
 import jakarta.validation.constraints.NotBlank;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document(collection = "categories")
@@ -9,6 +10,7 @@ public class Category {
     @Id
     @NotBlank //Aquí estamos validando
     private String id;
+    @Indexed
     private String name;
 
     public Category() {
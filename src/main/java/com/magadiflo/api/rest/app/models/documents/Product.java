@@ -1,34 +1,58 @@
 package com.magadiflo.api.rest.app.models.documents;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.TextIndexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.format.annotation.DateTimeFormat;
 
+import java.text.Normalizer;
 import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 
-@Document(collection = "products")
+@Document(collection = "products", language = "spanish")
+@CompoundIndex(name = "category_id", def = "{'category._id': 1, '_id': 1}")
+@CompoundIndex(name = "createAt_id", def = "{'createAt': -1, '_id': 1}")
 public class Product {
     @Id
     private String id;
     @NotBlank
+    @Indexed
+    @TextIndexed
     private String name;
+    // Nombre en minúsculas y sin tildes para las búsquedas por prefijo sobre índice
+    @JsonIgnore
+    @Indexed
+    private String searchName;
     @NotNull
     private Double price;
     @DateTimeFormat(pattern = "yyyy-MM-dd")
     private LocalDate createAt;
     private String image;
+    private Map<String, String> imageVariants;
     @Valid //Le decimos que este objeto se tiene que validar
     @NotNull
     private Category category;
+    // Se incrementa en cada escritura y de él sale el ETag; no se acepta desde el cliente
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
 
     public Product() {
     }
 
     public Product(String name, Double price) {
         this.name = name;
+        this.searchName = toSearchName(name);
         this.price = price;
     }
 
@@ -37,6 +61,21 @@ public class Product {
         this.category = category;
     }
 
+    /**
+     * Copia para poder modificar un producto sin tocar la instancia que comparte la caché.
+     */
+    public Product(Product product) {
+        this.id = product.id;
+        this.name = product.name;
+        this.searchName = product.searchName;
+        this.price = product.price;
+        this.createAt = product.createAt;
+        this.image = product.image;
+        this.imageVariants = product.imageVariants == null ? null : new LinkedHashMap<>(product.imageVariants);
+        this.category = product.category;
+        this.version = product.version;
+    }
+
     public String getId() {
         return id;
     }
@@ -51,6 +90,7 @@ public class Product {
 
     public void setName(String name) {
         this.name = name;
+        this.searchName = toSearchName(name);
     }
 
     public Double getPrice() {
@@ -77,6 +117,14 @@ public class Product {
         this.image = image;
     }
 
+    public Map<String, String> getImageVariants() {
+        return imageVariants;
+    }
+
+    public void setImageVariants(Map<String, String> imageVariants) {
+        this.imageVariants = imageVariants;
+    }
+
     public Category getCategory() {
         return category;
     }
@@ -85,6 +133,27 @@ public class Product {
         this.category = category;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public String getSearchName() {
+        return searchName;
+    }
+
+    public static String toSearchName(String name) {
+        if (name == null) {
+            return null;
+        }
+        return Normalizer.normalize(name, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("Product{");
@@ -93,7 +162,9 @@ public class Product {
         sb.append(", price=").append(price);
         sb.append(", createAt=").append(createAt);
         sb.append(", image='").append(image).append('\'');
+        sb.append(", imageVariants=").append(imageVariants);
         sb.append(", category=").append(category);
+        sb.append(", version=").append(version);
         sb.append('}');
         return sb.toString();
     }
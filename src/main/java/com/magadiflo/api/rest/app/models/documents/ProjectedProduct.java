@@ -0,0 +1,11 @@
+package com.magadiflo.api.rest.app.models.documents;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Producto leído con fields=: los campos que no se pidieron quedan a null y no se escriben. El producto
+ * completo sigue escribiendo sus nulos (p.ej. "image": null).
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProjectedProduct extends Product {
+}
@@ -0,0 +1,61 @@
+package com.magadiflo.api.rest.app.models.dto;
+
+import java.util.List;
+
+public class BulkItemResult {
+
+    public enum Status {
+        CREATED, UPDATED, INVALID, FAILED, SKIPPED
+    }
+
+    private final long index;
+    private final String id;
+    private final Status status;
+    private final List<String> errors;
+
+    private BulkItemResult(long index, String id, Status status, List<String> errors) {
+        this.index = index;
+        this.id = id;
+        this.status = status;
+        this.errors = errors;
+    }
+
+    public static BulkItemResult of(long index, String id, Status status) {
+        return new BulkItemResult(index, id, status, List.of());
+    }
+
+    public static BulkItemResult invalid(long index, String id, List<String> errors) {
+        return new BulkItemResult(index, id, Status.INVALID, errors);
+    }
+
+    public static BulkItemResult failed(long index, String id, String error) {
+        return new BulkItemResult(index, id, Status.FAILED, List.of(error));
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("BulkItemResult{");
+        sb.append("index=").append(index);
+        sb.append(", id='").append(id).append('\'');
+        sb.append(", status=").append(status);
+        sb.append(", errors=").append(errors);
+        sb.append('}');
+        return sb.toString();
+    }
+}
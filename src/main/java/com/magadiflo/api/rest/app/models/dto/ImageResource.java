@@ -0,0 +1,45 @@
+package com.magadiflo.api.rest.app.models.dto;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+import java.time.Instant;
+
+public class ImageResource {
+    private final String name;
+    private final Resource resource;
+    private final long contentLength;
+    private final Instant lastModified;
+
+    public ImageResource(String name, Resource resource, long contentLength, Instant lastModified) {
+        this.name = name;
+        this.resource = resource;
+        this.contentLength = contentLength;
+        this.lastModified = lastModified;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Resource getResource() {
+        return resource;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public Instant getLastModified() {
+        return lastModified;
+    }
+
+    public MediaType getMediaType() {
+        return MediaTypeFactory.getMediaType(this.name).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+
+    public String getETag() {
+        return "\"%x-%x-%x\"".formatted(this.name.hashCode(), this.lastModified.toEpochMilli(), this.contentLength);
+    }
+}
@@ -0,0 +1,82 @@
+package com.magadiflo.api.rest.app.models.dto;
+
+import com.magadiflo.api.rest.app.models.documents.Product;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+public final class ProductETag {
+    // "versión-resumen"; se sigue aceptando la versión sola de los ETags anteriores
+    private static final Pattern STRONG_VERSION = Pattern.compile("\"(\\d{1,18})(-[0-9a-f]{16})?\"");
+
+    private ProductETag() {
+    }
+
+    /**
+     * ETag fuerte de una representación del producto: la versión más un resumen de lo que cambia la respuesta
+     * sin cambiar la versión (el nombre de la categoría, que con referencias se renombra aparte, el formato y los
+     * campos seleccionados). null si el documento aún no tiene versión.
+     */
+    public static String of(Product product, MediaType mediaType, Set<String> fields) {
+        if (product.getVersion() == null) {
+            return null;
+        }
+        String content = categoryOf(product) + representation(mediaType, fields);
+        return "\"%d-%s\"".formatted(product.getVersion(), digest(content));
+    }
+
+    /**
+     * Una página cambia si cambia cualquiera de sus productos (o el nombre de su categoría), su orden o el
+     * cursor siguiente, y es distinta en cada formato y selección de campos.
+     */
+    public static String of(ProductPage page, MediaType mediaType, Set<String> fields) {
+        StringBuilder content = new StringBuilder();
+        page.getProducts().forEach(product -> content.append(product.getId()).append(':').append(product.getVersion())
+                .append(':').append(categoryOf(product)).append(','));
+        content.append(page.getNextCursor()).append(representation(mediaType, fields));
+        return "\"%s\"".formatted(DigestUtils.md5DigestAsHex(content.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Versión exigida por If-Match, que se comprueba en la misma escritura: null si no hay precondición
+     * (sin cabecera o "*"). Solo se admite un ETag fuerte; la escritura reemplaza el documento, así que se
+     * compara su versión sea cual sea la representación de la que salió el ETag.
+     */
+    public static Long expectedVersion(List<String> ifMatch) {
+        List<String> values = ifMatch.stream()
+                .flatMap(header -> Arrays.stream(header.split(",")))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .toList();
+        if (values.isEmpty() || values.contains("*")) {
+            return null;
+        }
+        Matcher matcher = STRONG_VERSION.matcher(values.get(0));
+        if (values.size() == 1 && matcher.matches()) {
+            return Long.valueOf(matcher.group(1));
+        }
+        throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "If-Match no válido: %s".formatted(String.join(", ", values)));
+    }
+
+    private static String categoryOf(Product product) {
+        return product.getCategory() == null ? "" : product.getCategory().getId() + "/" + product.getCategory().getName();
+    }
+
+    private static String representation(MediaType mediaType, Set<String> fields) {
+        String selectedFields = fields == null ? "*" : fields.stream().sorted().collect(Collectors.joining(","));
+        return ";" + mediaType.getType() + "/" + mediaType.getSubtype() + ";" + selectedFields;
+    }
+
+    private static String digest(String content) {
+        return DigestUtils.md5DigestAsHex(content.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+    }
+}
@@ -0,0 +1,52 @@
+package com.magadiflo.api.rest.app.models.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.magadiflo.api.rest.app.models.documents.Product;
+
+import java.time.Instant;
+import java.util.Set;
+
+public class ProductEvent {
+    private final String resumeToken;
+    private final String operation;
+    private final String productId;
+    private final Product product;
+    private final Set<String> updatedFields;
+    private final Instant timestamp;
+
+    public ProductEvent(String resumeToken, String operation, String productId, Product product,
+                        Set<String> updatedFields, Instant timestamp) {
+        this.resumeToken = resumeToken;
+        this.operation = operation;
+        this.productId = productId;
+        this.product = product;
+        this.updatedFields = updatedFields;
+        this.timestamp = timestamp;
+    }
+
+    // Viaja como id del evento SSE, no dentro del JSON
+    @JsonIgnore
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    public Set<String> getUpdatedFields() {
+        return updatedFields;
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,73 @@
+package com.magadiflo.api.rest.app.models.dto;
+
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.documents.ProjectedProduct;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public final class ProductFields {
+    public static final String PARAM = "fields";
+    public static final Set<String> SELECTABLE_FIELDS = Set.of("id", "name", "price", "createAt", "image", "imageVariants", "category", "version");
+    // El cursor de las páginas y el ETag salen de id y version: se leen siempre
+    private static final Set<String> REQUIRED_FIELDS = Set.of("id", "version");
+
+    private ProductFields() {
+    }
+
+    /**
+     * Campos pedidos en fields=name,price más id y version; null (sin parámetro o vacío) es el producto completo.
+     */
+    public static Set<String> parse(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return null;
+        }
+        Set<String> selected = Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(field -> !field.isEmpty())
+                .collect(Collectors.toCollection(HashSet::new));
+        Set<String> unknownFields = selected.stream()
+                .filter(field -> !SELECTABLE_FIELDS.contains(field))
+                .collect(Collectors.toSet());
+        if (!unknownFields.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Los campos %s no se pueden seleccionar".formatted(unknownFields));
+        }
+        selected.addAll(REQUIRED_FIELDS);
+        return Set.copyOf(selected);
+    }
+
+    /**
+     * Copia con solo los campos seleccionados de un producto completo, p. ej. el que ya está en la caché.
+     */
+    public static Product select(Product product, Set<String> fields) {
+        if (fields == null) {
+            return product;
+        }
+        Product selected = new ProjectedProduct();
+        selected.setId(product.getId());
+        selected.setVersion(product.getVersion());
+        if (fields.contains("name")) {
+            selected.setName(product.getName());
+        }
+        if (fields.contains("price")) {
+            selected.setPrice(product.getPrice());
+        }
+        if (fields.contains("createAt")) {
+            selected.setCreateAt(product.getCreateAt());
+        }
+        if (fields.contains("image")) {
+            selected.setImage(product.getImage());
+        }
+        if (fields.contains("imageVariants")) {
+            selected.setImageVariants(product.getImageVariants());
+        }
+        if (fields.contains("category")) {
+            selected.setCategory(product.getCategory());
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,78 @@
+package com.magadiflo.api.rest.app.models.dto;
+
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.exceptions.InvalidCursorException;
+import org.bson.types.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class ProductPage {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private final List<Product> products;
+    private final int size;
+    private final String nextCursor;
+
+    private ProductPage(List<Product> products, int size, String nextCursor) {
+        this.products = products;
+        this.size = size;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Recibe hasta size + 1 productos ordenados por id: si llega el elemento extra es que existe
+     * una página siguiente, cuyo cursor es el id del último producto de la página actual.
+     */
+    public static ProductPage of(List<Product> products, int size) {
+        if (products.size() <= size) {
+            return new ProductPage(products, size, null);
+        }
+        List<Product> page = products.subList(0, size);
+        return new ProductPage(page, size, encodeCursor(page.get(size - 1).getId()));
+    }
+
+    public static String encodeCursor(String id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String decodeCursor(String cursor) {
+        String id;
+        try {
+            id = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException(cursor, e);
+        }
+        if (!ObjectId.isValid(id)) {
+            throw new InvalidCursorException(cursor);
+        }
+        return id;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return this.nextCursor != null;
+    }
+
+    public String nextLink(String path, Set<String> fields) {
+        String link = "%s?cursor=%s&size=%d".formatted(path, this.nextCursor, this.size);
+        if (fields != null) {
+            link += "&%s=%s".formatted(ProductFields.PARAM, String.join(",", new TreeSet<>(fields)));
+        }
+        return "<%s>; rel=\"next\"".formatted(link);
+    }
+}
@@ -0,0 +1,11 @@
+package com.magadiflo.api.rest.app.models.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class CategoryNotFoundException extends RuntimeException {
+    public CategoryNotFoundException(String categoryId) {
+        super("No existe la categoría con id %s".formatted(categoryId));
+    }
+}
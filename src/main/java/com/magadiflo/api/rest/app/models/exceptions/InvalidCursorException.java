@@ -0,0 +1,15 @@
+package com.magadiflo.api.rest.app.models.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidCursorException extends RuntimeException {
+    public InvalidCursorException(String cursor) {
+        super("El cursor %s no es válido".formatted(cursor));
+    }
+
+    public InvalidCursorException(String cursor, Throwable cause) {
+        super("El cursor %s no es válido".formatted(cursor), cause);
+    }
+}
@@ -0,0 +1,157 @@
+package com.magadiflo.api.rest.app.models.repositories.config;
+
+import com.magadiflo.api.rest.app.models.documents.Category;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.mongodb.MongoException;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver.IndexDefinitionHolder;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Crea los índices declarados con @Indexed/@CompoundIndex/@TextIndexed, asigna la versión inicial a los
+ * productos guardados antes de @Version, calcula el searchName de los guardados antes de la búsqueda por
+ * prefijo y comprueba con explain que las consultas de los repositorios
+ * no terminen en un COLLSCAN.
+ */
+@Component
+public class MongoIndexInitializer {
+
+    public enum QueryPlanCheck {
+        OFF, WARN, FAIL
+    }
+
+    private record PlannedQuery(String name, String collection, Document filter, Document sort) {
+    }
+
+    private final static Logger LOG = LoggerFactory.getLogger(MongoIndexInitializer.class);
+
+    private final static int BACKFILL_BATCH_SIZE = 500;
+
+    private final static List<PlannedQuery> REPOSITORY_QUERIES = List.of(
+            new PlannedQuery("IProductRepository.findByName/findProduct", "products", new Document("name", ""), new Document()),
+            new PlannedQuery("IProductService.findPage", "products", new Document(), new Document("_id", 1)),
+            new PlannedQuery("IProductService.findPage (cursor)", "products", new Document("_id", new Document("$gt", new ObjectId())), new Document("_id", 1)),
+            new PlannedQuery("IProductService.search (prefijo)", "products", new Document("searchName", new Document("$regex", "^a")), new Document("searchName", 1)),
+            new PlannedQuery("IProductService.search (texto)", "products", new Document("$text", new Document("$search", "a b")), new Document()),
+            new PlannedQuery("ICategoryRepository.findByName", "categories", new Document("name", ""), new Document()),
+            new PlannedQuery("ICategoryRepository.findAllById", "categories", new Document("_id", new Document("$in", List.of(new ObjectId()))), new Document())
+    );
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Value("${config.mongo.query-plan-check}")
+    private QueryPlanCheck queryPlanCheck;
+
+    public MongoIndexInitializer(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    public Mono<Void> initialize() {
+        return this.ensureIndexes()
+                .then(this.backfillProductVersions())
+                .then(this.backfillProductSearchNames())
+                .then(this.verifyQueryPlans());
+    }
+
+    /**
+     * Sin versión, Spring Data tomaría esos productos por nuevos y el save intentaría insertarlos.
+     */
+    public Mono<Void> backfillProductVersions() {
+        return this.reactiveMongoTemplate.updateMulti(Query.query(Criteria.where("version").exists(false)), Update.update("version", 0L), Product.class)
+                .filter(updateResult -> updateResult.getModifiedCount() > 0)
+                .doOnNext(updateResult -> LOG.info("Versión inicial asignada a {} productos", updateResult.getModifiedCount()))
+                .then();
+    }
+
+    /**
+     * Sin searchName, la búsqueda por prefijo no encuentra esos productos. El nombre normalizado se calcula en
+     * Java (Mongo no sabe quitar las tildes), así que se leen solo id y nombre y se actualizan por lotes.
+     */
+    public Mono<Void> backfillProductSearchNames() {
+        Query query = Query.query(Criteria.where("searchName").exists(false).and("name").exists(true));
+        query.fields().include("name");
+
+        return this.reactiveMongoTemplate.find(query, Document.class, "products")
+                .buffer(BACKFILL_BATCH_SIZE)
+                .concatMap(documents -> {
+                    ReactiveBulkOperations bulkOperations = this.reactiveMongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "products");
+                    documents.forEach(document -> bulkOperations.updateOne(
+                            Query.query(Criteria.where("_id").is(document.get("_id")).and("searchName").exists(false)),
+                            Update.update("searchName", Product.toSearchName(document.getString("name")))));
+                    return bulkOperations.execute();
+                })
+                .reduce(0, (modified, bulkWriteResult) -> modified + bulkWriteResult.getModifiedCount())
+                .filter(modified -> modified > 0)
+                .doOnNext(modified -> LOG.info("searchName asignado a {} productos", modified))
+                .then();
+    }
+
+    public Mono<Void> ensureIndexes() {
+        IndexResolver indexResolver = new MongoPersistentEntityIndexResolver(this.reactiveMongoTemplate.getConverter().getMappingContext());
+
+        return Flux.just(Product.class, Category.class)
+                .concatMap(entityClass -> Flux.fromIterable(indexResolver.resolveIndexFor(entityClass))
+                        // Los @Indexed de documentos embebidos (p.ej. category.name dentro de products) no los usa ninguna consulta
+                        .filter(indexDefinition -> !(indexDefinition instanceof IndexDefinitionHolder holder) || !holder.getPath().contains("."))
+                        .concatMap(indexDefinition -> this.reactiveMongoTemplate.indexOps(entityClass).ensureIndex(indexDefinition))
+                        .doOnNext(indexName -> LOG.info("Índice asegurado: {} en {}", indexName, entityClass.getSimpleName())))
+                .then();
+    }
+
+    public Mono<Void> verifyQueryPlans() {
+        if (this.queryPlanCheck == QueryPlanCheck.OFF) {
+            return Mono.empty();
+        }
+        return Flux.fromIterable(REPOSITORY_QUERIES)
+                .concatMap(this::verifyQueryPlan)
+                .then();
+    }
+
+    private Mono<Void> verifyQueryPlan(PlannedQuery query) {
+        return this.reactiveMongoTemplate.getCollection(query.collection())
+                .flatMap(collection -> Mono.from(collection.find(query.filter()).sort(query.sort()).explain(Document.class)))
+                .flatMap(explain -> {
+                    Document queryPlanner = explain.get("queryPlanner", Document.class);
+                    if (queryPlanner == null || !hasCollectionScan(queryPlanner.get("winningPlan"))) {
+                        return Mono.<Void>empty();
+                    }
+                    String message = "La consulta %s sobre %s hace un COLLSCAN".formatted(query.name(), query.collection());
+                    if (this.queryPlanCheck == QueryPlanCheck.FAIL) {
+                        return Mono.<Void>error(new IllegalStateException(message));
+                    }
+                    LOG.warn(message);
+                    return Mono.<Void>empty();
+                })
+                .onErrorResume(MongoException.class, e -> {
+                    LOG.warn("No se pudo obtener el plan de {}: {}", query.name(), e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private static boolean hasCollectionScan(Object stage) {
+        if (stage instanceof Document document) {
+            return "COLLSCAN".equals(document.get("stage")) ||
+                   document.values().stream().anyMatch(MongoIndexInitializer::hasCollectionScan);
+        }
+        if (stage instanceof List<?> stages) {
+            return stages.stream().anyMatch(MongoIndexInitializer::hasCollectionScan);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,27 @@
+package com.magadiflo.api.rest.app.models.services;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Caché compartida por todas las instancias del servicio, detrás de las cachés locales de Caffeine.
+ * Las entradas se agrupan por región (products, categories) y se identifican por el id del documento.
+ */
+public interface IDistributedCache {
+    String PRODUCTS = "products";
+    String CATEGORIES = "categories";
+
+    record Invalidation(String region, String key) {
+    }
+
+    <T> Mono<T> get(String region, String key, Class<T> type);
+
+    Mono<Void> put(String region, String key, Object value);
+
+    /**
+     * Borra la entrada y avisa al resto de instancias (y a esta misma) para que la invaliden en su caché local.
+     */
+    Mono<Void> evict(String region, String key);
+
+    Flux<Invalidation> invalidations();
+}
@@ -0,0 +1,19 @@
+package com.magadiflo.api.rest.app.models.services;
+
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.ImageResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePart;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+public interface IImageService {
+    Mono<ImageResource> findImage(String imageName);
+
+    Mono<String> store(FilePart filePart);
+
+    void generateVariants(String productId, String imageName);
+
+    String resolveImageName(Product product, Integer size, List<MediaType> accept);
+}
@@ -0,0 +1,14 @@
+package com.magadiflo.api.rest.app.models.services;
+
+import com.magadiflo.api.rest.app.models.dto.ImageResource;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Path;
+
+public interface IImageStorage {
+    Mono<Boolean> exists(String imageName);
+
+    Mono<Void> store(String imageName, Path source);
+
+    Mono<ImageResource> load(String imageName);
+}
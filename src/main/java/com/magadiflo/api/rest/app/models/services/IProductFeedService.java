@@ -0,0 +1,11 @@
+package com.magadiflo.api.rest.app.models.services;
+
+import com.magadiflo.api.rest.app.models.dto.ProductEvent;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+
+import java.util.Set;
+
+public interface IProductFeedService {
+    Flux<ServerSentEvent<ProductEvent>> feed(String categoryId, Set<String> changedFields, String lastEventId);
+}
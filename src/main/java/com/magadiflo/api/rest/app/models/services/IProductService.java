@@ -2,22 +2,51 @@ package com.magadiflo.api.rest.app.models.services;
 
 import com.magadiflo.api.rest.app.models.documents.Category;
 import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.BulkItemResult;
+import com.magadiflo.api.rest.app.models.dto.CategoryStats;
+import com.magadiflo.api.rest.app.models.dto.MonthlyStats;
+import com.magadiflo.api.rest.app.models.dto.ProductPage;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Map;
+import java.util.Set;
+
 public interface IProductService {
     Flux<Product> findAll();
 
+    Mono<ProductPage> findPage(String cursor, Integer size, Set<String> fields);
+
+    Flux<Product> streamAll();
+
+    Flux<Product> search(String q, String categoryId, Double minPrice, Double maxPrice, Integer limit, Set<String> fields);
+
+    Flux<CategoryStats> findCategoryStats();
+
+    Flux<MonthlyStats> findMonthlyStats();
+
     Flux<Product> findAllWithNameUpperCase();
 
     Flux<Product> findAllWithNameUpperCaseAndRepeat();
 
     Mono<Product> findById(String id);
 
+    Mono<Product> findById(String id, Set<String> fields);
+
     Mono<Product> findByName(String name);
 
     Mono<Product> saveProduct(Product product);
 
+    Flux<BulkItemResult> saveProducts(Flux<Product> products, boolean ordered);
+
+    Mono<Product> updateProduct(String id, Product product, Long expectedVersion);
+
+    Mono<Product> patchProduct(String id, Map<String, Object> patch, Long expectedVersion);
+
+    Mono<Product> deleteById(String id, Long expectedVersion);
+
+    Mono<Boolean> updateImageVariants(String id, String image, Map<String, String> imageVariants);
+
     Mono<Void> delete(Product product);
 
     Flux<Category> findAllCategories();
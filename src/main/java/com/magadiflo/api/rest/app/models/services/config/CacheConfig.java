@@ -0,0 +1,66 @@
+package com.magadiflo.api.rest.app.models.services.config;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.magadiflo.api.rest.app.models.documents.Category;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.CategoryStats;
+import com.magadiflo.api.rest.app.models.dto.MonthlyStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.List;
+
+@Configuration
+public class CacheConfig {
+
+    @Bean
+    public AsyncCache<String, Product> productCache(@Value("${config.cache.products.max-size}") long maxSize,
+                                                    @Value("${config.cache.products.ttl}") Duration ttl,
+                                                    MeterRegistry meterRegistry) {
+        AsyncCache<String, Product> cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, "products");
+    }
+
+    @Bean
+    public AsyncCache<String, Category> categoryCache(@Value("${config.cache.categories.max-size}") long maxSize,
+                                                      @Value("${config.cache.categories.ttl}") Duration ttl,
+                                                      MeterRegistry meterRegistry) {
+        AsyncCache<String, Category> cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, "categories");
+    }
+
+    @Bean
+    public AsyncCache<String, List<CategoryStats>> categoryStatsCache(@Value("${config.cache.stats.ttl}") Duration ttl,
+                                                                      MeterRegistry meterRegistry) {
+        AsyncCache<String, List<CategoryStats>> cache = Caffeine.newBuilder()
+                .maximumSize(1)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, "category-stats");
+    }
+
+    @Bean
+    public AsyncCache<String, List<MonthlyStats>> monthlyStatsCache(@Value("${config.cache.stats.ttl}") Duration ttl,
+                                                                    MeterRegistry meterRegistry) {
+        AsyncCache<String, List<MonthlyStats>> cache = Caffeine.newBuilder()
+                .maximumSize(1)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, "monthly-stats");
+    }
+}
@@ -0,0 +1,129 @@
+package com.magadiflo.api.rest.app.models.services.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.magadiflo.api.rest.app.models.documents.Category;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.BulkItemResult;
+import com.magadiflo.api.rest.app.models.services.IProductService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Carga los datos iniciales: los productos de un fichero JSON (un array) o NDJSON (un producto por línea),
+ * o N productos sintéticos. Las categorías se indican por nombre y se crean la primera vez que aparecen;
+ * los productos se insertan por lotes con saveProducts (un bulkWrite por lote).
+ */
+@Component
+public class ProductSeeder {
+
+    public enum Source {
+        FILE, GENERATOR
+    }
+
+    private final static Logger LOG = LoggerFactory.getLogger(ProductSeeder.class);
+    private final static List<String> GENERATED_CATEGORIES = List.of("Electrónico", "Deporte", "Muebles", "Decoración");
+
+    private final IProductService productService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${config.seed.source}")
+    private Source source;
+
+    @Value("${config.seed.file}")
+    private Resource file;
+
+    @Value("${config.seed.generator.count}")
+    private int generatorCount;
+
+    public ProductSeeder(IProductService productService, ObjectMapper objectMapper) {
+        this.productService = productService;
+        this.objectMapper = objectMapper;
+    }
+
+    public Mono<Void> seed() {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            Map<String, Mono<Category>> categories = new ConcurrentHashMap<>();
+            Flux<Product> products = (this.source == Source.FILE ? this.readFile() : this.generate())
+                    .concatMap(product -> this.categoryOf(product, categories)
+                            .map(category -> {
+                                product.setCategory(category);
+                                return product;
+                            }));
+
+            return this.productService.saveProducts(products, false)
+                    .doOnNext(result -> {
+                        if (!result.getErrors().isEmpty()) {
+                            LOG.warn("Producto {} de la semilla no insertado: {}", result.getIndex(), result.getErrors());
+                        }
+                    })
+                    .collect(() -> new EnumMap<BulkItemResult.Status, Long>(BulkItemResult.Status.class),
+                            (counts, result) -> counts.merge(result.getStatus(), 1L, Long::sum))
+                    .doOnNext(counts -> {
+                        long created = counts.getOrDefault(BulkItemResult.Status.CREATED, 0L);
+                        double seconds = Math.max(System.nanoTime() - start, 1) / 1_000_000_000.0;
+                        LOG.info("Semilla ({}) cargada: {} productos en {} categorías en {} ms ({} productos/s), resultado {}",
+                                this.source, created, categories.size(), Math.round(seconds * 1000),
+                                Math.round(created / seconds), counts);
+                    })
+                    .then();
+        });
+    }
+
+    /**
+     * Un Mono por nombre guardado con cache(): la categoría se inserta una sola vez aunque la pidan muchos productos.
+     */
+    private Mono<Category> categoryOf(Product product, Map<String, Mono<Category>> categories) {
+        if (product.getCategory() == null || product.getCategory().getName() == null) {
+            return Mono.just(new Category());
+        }
+        return categories.computeIfAbsent(product.getCategory().getName(),
+                name -> this.productService.saveCategory(new Category(name))
+                        .doOnNext(category -> LOG.info("Categoría creada: {}", category))
+                        .cache());
+    }
+
+    private Flux<Product> readFile() {
+        // readValues lee tanto los elementos de un array JSON como valores separados por saltos de línea
+        return Flux.using(
+                        () -> this.objectMapper.readerFor(Product.class).<Product>readValues(this.file.getInputStream()),
+                        iterator -> Flux.fromIterable(() -> iterator),
+                        iterator -> {
+                            try {
+                                iterator.close();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Flux<Product> generate() {
+        // Semilla fija: los mismos datos en cada arranque
+        Random random = new Random(42);
+        LocalDate today = LocalDate.now();
+        return Flux.range(1, this.generatorCount)
+                .map(index -> {
+                    Product product = new Product("Producto %06d".formatted(index),
+                            Math.round(random.nextDouble(1.0, 5000.0) * 100) / 100.0,
+                            new Category(GENERATED_CATEGORIES.get(random.nextInt(GENERATED_CATEGORIES.size()))));
+                    product.setCreateAt(today.minusDays(random.nextInt(365)));
+                    return product;
+                });
+    }
+}
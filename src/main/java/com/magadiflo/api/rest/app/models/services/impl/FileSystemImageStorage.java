@@ -0,0 +1,60 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import com.magadiflo.api.rest.app.models.dto.ImageResource;
+import com.magadiflo.api.rest.app.models.services.IImageStorage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Guarda las imágenes en la carpeta de uploads del nodo. Las operaciones sobre el sistema de ficheros
+ * (stat, rename) se hacen en boundedElastic; el contenido ya llega escrito con AsynchronousFileChannel.
+ */
+@Component
+@ConditionalOnProperty(name = "config.images.storage", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemImageStorage implements IImageStorage {
+
+    @Value("${config.uploads.path}")
+    private String uploadsPath;
+
+    @Override
+    public Mono<Boolean> exists(String imageName) {
+        return Mono.fromCallable(() -> Files.isRegularFile(this.basePath().resolve(imageName)))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<Void> store(String imageName, Path source) {
+        return Mono.fromCallable(() -> ImageFiles.moveIfAbsent(source, this.basePath().resolve(imageName)))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then();
+    }
+
+    @Override
+    public Mono<ImageResource> load(String imageName) {
+        // stat del fichero fuera del event loop; el contenido lo envía luego Netty con sendfile
+        return Mono.fromCallable(() -> {
+                    Path basePath = this.basePath();
+                    Path imagePath = basePath.resolve(imageName).normalize();
+                    if (!imagePath.startsWith(basePath) || !Files.isRegularFile(imagePath)) {
+                        return null;
+                    }
+                    BasicFileAttributes attributes = Files.readAttributes(imagePath, BasicFileAttributes.class);
+                    return new ImageResource(imageName, new FileSystemResource(imagePath),
+                            attributes.size(), attributes.lastModifiedTime().toInstant());
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Path basePath() {
+        return Paths.get(this.uploadsPath).toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,152 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.magadiflo.api.rest.app.models.dto.ImageResource;
+import com.magadiflo.api.rest.app.models.services.IImageStorage;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import jakarta.annotation.PostConstruct;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsCriteria;
+import org.springframework.data.mongodb.gridfs.ReactiveGridFsOperations;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * Guarda las imágenes en GridFS para que todos los nodos compartan el mismo almacén. Al servirlas se
+ * descargan una vez a una caché local: como el nombre deriva del hash, la copia nunca queda desactualizada
+ * y las siguientes descargas vuelven a salir por sendfile. La caché ocupa como mucho
+ * config.images.gridfs.cache-max-size; las copias que Caffeine desaloja se borran del disco pasado
+ * config.images.gridfs.cache-delete-delay, para que las peticiones que ya las estaban sirviendo terminen.
+ */
+@Component
+@ConditionalOnProperty(name = "config.images.storage", havingValue = "gridfs")
+public class GridFsImageStorage implements IImageStorage {
+
+    private final static Logger LOG = LoggerFactory.getLogger(GridFsImageStorage.class);
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private record CachedImage(Path path, long length) {
+    }
+
+    private final ReactiveGridFsOperations gridFsOperations;
+    private AsyncCache<String, CachedImage> cachedImages;
+
+    @Value("${config.uploads.path}")
+    private String uploadsPath;
+
+    @Value("${config.images.gridfs.cache-max-size}")
+    private DataSize cacheMaxSize;
+
+    @Value("${config.images.gridfs.cache-delete-delay}")
+    private Duration cacheDeleteDelay;
+
+    public GridFsImageStorage(ReactiveGridFsOperations gridFsOperations) {
+        this.gridFsOperations = gridFsOperations;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        // Las copias de una ejecución anterior no están en la caché y nunca se desalojarían
+        FileSystemUtils.deleteRecursively(this.cachePath());
+        this.cachedImages = Caffeine.newBuilder()
+                .maximumWeight(this.cacheMaxSize.toKilobytes())
+                .weigher((String imageName, CachedImage cachedImage) -> (int) Math.min(Integer.MAX_VALUE, (cachedImage.length() + 1023) / 1024))
+                .removalListener((String imageName, CachedImage cachedImage, RemovalCause cause) -> {
+                    if (cachedImage != null) {
+                        Mono.delay(this.cacheDeleteDelay, Schedulers.boundedElastic())
+                                .subscribe(tick -> this.delete(cachedImage));
+                    }
+                })
+                .buildAsync();
+    }
+
+    @Override
+    public Mono<Boolean> exists(String imageName) {
+        return this.gridFsOperations.findFirst(this.byName(imageName)).hasElement();
+    }
+
+    @Override
+    public Mono<Void> store(String imageName, Path source) {
+        // Si dos nodos suben la misma imagen a la vez quedan dos ficheros iguales; findFirst devuelve cualquiera
+        String contentType = MediaTypeFactory.getMediaType(imageName).map(MediaType::toString).orElse(null);
+        return this.exists(imageName)
+                .flatMap(exists -> exists ? Mono.empty() : this.gridFsOperations
+                        .store(DataBufferUtils.read(source, DefaultDataBufferFactory.sharedInstance, BUFFER_SIZE), imageName, contentType))
+                .then();
+    }
+
+    @Override
+    public Mono<ImageResource> load(String imageName) {
+        // uploadDate viene de GridFS, así el ETag es el mismo en todos los nodos
+        return this.gridFsOperations.findFirst(this.byName(imageName))
+                .flatMap(gridFSFile -> this.cachedCopy(gridFSFile)
+                        .map(cachedPath -> new ImageResource(imageName, new FileSystemResource(cachedPath),
+                                gridFSFile.getLength(), gridFSFile.getUploadDate().toInstant())));
+    }
+
+    private Mono<Path> cachedCopy(GridFSFile gridFSFile) {
+        Path cachePath = this.cachePath();
+        // Cada descarga va a un fichero propio: el borrado diferido de una copia desalojada no toca la siguiente
+        Path cachedPath = cachePath.resolve(new ObjectId().toHexString() + "-" + gridFSFile.getFilename()).normalize();
+        if (!cachedPath.getParent().equals(cachePath)) {
+            return Mono.empty();
+        }
+        // Las peticiones concurrentes de una imagen que no está en disco comparten una única descarga
+        return Mono.fromFuture(() -> this.cachedImages.get(gridFSFile.getFilename(), (imageName, executor) -> this.download(gridFSFile, cachedPath).toFuture()), true)
+                .map(CachedImage::path);
+    }
+
+    private Mono<CachedImage> download(GridFSFile gridFSFile, Path cachedPath) {
+        return Mono.usingWhen(
+                Mono.fromCallable(() -> ImageFiles.createTempFile(this.basePath())).subscribeOn(Schedulers.boundedElastic()),
+                tempFile -> this.gridFsOperations.getResource(gridFSFile)
+                        .flatMap(resource -> DataBufferUtils.write(resource.getDownloadStream(), tempFile, StandardOpenOption.WRITE))
+                        .then(Mono.fromCallable(() -> {
+                            Files.createDirectories(cachedPath.getParent());
+                            return new CachedImage(ImageFiles.moveIfAbsent(tempFile, cachedPath), gridFSFile.getLength());
+                        }).subscribeOn(Schedulers.boundedElastic())),
+                tempFile -> Mono.fromCallable(() -> Files.deleteIfExists(tempFile)).subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    private void delete(CachedImage cachedImage) {
+        try {
+            Files.deleteIfExists(cachedImage.path());
+        } catch (IOException e) {
+            LOG.warn("No se pudo borrar la copia local {}: {}", cachedImage.path(), e.getMessage());
+        }
+    }
+
+    private Query byName(String imageName) {
+        return Query.query(GridFsCriteria.whereFilename().is(imageName));
+    }
+
+    private Path cachePath() {
+        return this.basePath().resolve(".cache");
+    }
+
+    private Path basePath() {
+        return Paths.get(this.uploadsPath).toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,37 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Operaciones bloqueantes sobre la carpeta de uploads; quien las use debe llamarlas fuera del event loop.
+ */
+final class ImageFiles {
+
+    private ImageFiles() {
+    }
+
+    static Path createTempFile(Path basePath) throws IOException {
+        // Dentro de la carpeta de uploads para que el move final sea un rename atómico
+        Path tempPath = Files.createDirectories(basePath.resolve(".tmp"));
+        return Files.createTempFile(tempPath, "upload-", ".tmp");
+    }
+
+    static Path moveIfAbsent(Path source, Path target) throws IOException {
+        if (Files.exists(target)) {
+            return target;
+        }
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Otra petición escribió el mismo nombre a la vez: al derivar del hash, el contenido es idéntico
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+}
@@ -0,0 +1,245 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.ImageResource;
+import com.magadiflo.api.rest.app.models.services.IImageService;
+import com.magadiflo.api.rest.app.models.services.IImageStorage;
+import com.magadiflo.api.rest.app.models.services.IProductService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.observability.micrometer.Micrometer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class ImageServiceImpl implements IImageService {
+
+    private final static Logger LOG = LoggerFactory.getLogger(ImageServiceImpl.class);
+    private final static MediaType IMAGE_WEBP = MediaType.parseMediaType("image/webp");
+    private final IProductService productService;
+    private final IImageStorage imageStorage;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary uploadSize;
+    private final boolean webpSupported = ImageIO.getImageWritersByFormatName("webp").hasNext();
+    private Scheduler variantsScheduler;
+
+    @Value("${config.uploads.path}")
+    private String uploadsPath;
+
+    @Value("${config.uploads.max-size}")
+    private DataSize maxSize;
+
+    @Value("${config.uploads.allowed-types}")
+    private List<MediaType> allowedTypes;
+
+    @Value("${config.images.variants.sizes}")
+    private List<Integer> variantSizes;
+
+    @Value("${config.images.variants.threads}")
+    private int variantThreads;
+
+    @Value("${config.images.variants.queue-size}")
+    private int variantQueueSize;
+
+    public ImageServiceImpl(IProductService productService, IImageStorage imageStorage, MeterRegistry meterRegistry) {
+        this.productService = productService;
+        this.imageStorage = imageStorage;
+        this.meterRegistry = meterRegistry;
+        this.uploadSize = DistributionSummary.builder("image.upload.size")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        // Pool propio y acotado: el escalado de imágenes es CPU intensivo y no debe competir con boundedElastic
+        this.variantsScheduler = Schedulers.newBoundedElastic(this.variantThreads, this.variantQueueSize, "image-variants");
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.variantsScheduler.dispose();
+    }
+
+    @Override
+    public Mono<ImageResource> findImage(String imageName) {
+        return this.imageStorage.load(imageName);
+    }
+
+    /**
+     * Vuelca el contenido a un temporal mientras calcula su SHA-256 y lo guarda con el hash como nombre,
+     * de modo que una imagen repetida apunta al fichero que ya existe en lugar de escribirse otra vez.
+     */
+    @Override
+    public Mono<String> store(FilePart filePart) {
+        MediaType contentType = filePart.headers().getContentType();
+        if (contentType == null || this.allowedTypes.stream().noneMatch(allowedType -> allowedType.includes(contentType))) {
+            return Mono.error(new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "Tipo de imagen no permitido: %s".formatted(contentType)));
+        }
+        String extension = "." + contentType.getSubtype();
+
+        return Mono.usingWhen(
+                Mono.fromCallable(() -> ImageFiles.createTempFile(this.basePath())).subscribeOn(Schedulers.boundedElastic()),
+                tempFile -> {
+                    MessageDigest digest = sha256();
+                    AtomicLong size = new AtomicLong();
+
+                    Flux<DataBuffer> content = filePart.content()
+                            .doOnNext(dataBuffer -> {
+                                if (size.addAndGet(dataBuffer.readableByteCount()) > this.maxSize.toBytes()) {
+                                    DataBufferUtils.release(dataBuffer);
+                                    throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "La imagen supera el máximo de %s".formatted(this.maxSize));
+                                }
+                                try (DataBuffer.ByteBufferIterator byteBuffers = dataBuffer.readableByteBuffers()) {
+                                    byteBuffers.forEachRemaining(digest::update);
+                                }
+                            });
+
+                    return DataBufferUtils.write(content, tempFile, StandardOpenOption.WRITE)
+                            .then(Mono.fromSupplier(() -> HexFormat.of().formatHex(digest.digest()) + extension))
+                            .flatMap(imageName -> this.imageStorage.store(imageName, tempFile).thenReturn(imageName))
+                            .doOnNext(imageName -> this.uploadSize.record(size.get()));
+                },
+                tempFile -> Mono.fromCallable(() -> Files.deleteIfExists(tempFile)).subscribeOn(Schedulers.boundedElastic()))
+                .name("image.upload")
+                .tag("type", contentType.getSubtype())
+                .tap(Micrometer.metrics(this.meterRegistry));
+    }
+
+    @Override
+    public void generateVariants(String productId, String imageName) {
+        this.createVariants(imageName)
+                .name("image.variants")
+                .tap(Micrometer.metrics(this.meterRegistry))
+                .filter(variants -> !variants.isEmpty())
+                .flatMap(variants -> this.productService.updateImageVariants(productId, imageName, variants))
+                .subscribe(
+                        updated -> LOG.info("Variantes de la imagen {} del producto {} registradas: {}", imageName, productId, updated),
+                        error -> LOG.warn("No se pudieron generar las variantes de la imagen {}: {}", imageName, error.toString())
+                );
+    }
+
+    /**
+     * Devuelve la variante más pequeña que cubre el tamaño pedido, en WebP si el cliente lo acepta
+     * explícitamente; sin tamaño, o si ninguna variante lo cubre, devuelve la imagen original.
+     */
+    @Override
+    public String resolveImageName(Product product, Integer size, List<MediaType> accept) {
+        Map<String, String> variants = product.getImageVariants();
+        if (size == null || variants == null || variants.isEmpty()) {
+            return product.getImage();
+        }
+        boolean acceptsWebp = accept.stream().anyMatch(mediaType -> mediaType.equalsTypeAndSubtype(IMAGE_WEBP));
+        String format = acceptsWebp ? "webp" : "jpeg";
+
+        return this.variantSizes.stream()
+                .filter(variantSize -> variantSize >= size)
+                .sorted()
+                .map(variantSize -> variants.getOrDefault(variantSize + "-" + format, variants.get(variantSize + "-jpeg")))
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(product.getImage());
+    }
+
+    private Mono<Map<String, String>> createVariants(String imageName) {
+        String baseName = imageName.substring(0, imageName.lastIndexOf('.'));
+
+        return this.imageStorage.load(imageName)
+                .publishOn(this.variantsScheduler)
+                .mapNotNull(image -> {
+                    try (InputStream inputStream = image.getResource().getInputStream()) {
+                        return ImageIO.read(inputStream);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .switchIfEmpty(Mono.fromRunnable(() -> LOG.warn("ImageIO no puede leer la imagen {}, no se generan variantes", imageName)))
+                .flatMapMany(source -> Flux.fromIterable(this.variantSizes)
+                        .concatMap(variantSize -> Flux.just("jpeg", "webp")
+                                .filter(format -> "jpeg".equals(format) || this.webpSupported)
+                                .concatMap(format -> this.storeVariant(source, variantSize, format, "%s-%d.%s".formatted(baseName, variantSize, "jpeg".equals(format) ? "jpg" : format))
+                                        .map(variantName -> Map.entry(variantSize + "-" + format, variantName)))))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue, LinkedHashMap::new);
+    }
+
+    private Mono<String> storeVariant(BufferedImage source, int variantSize, String format, String variantName) {
+        // El nombre deriva del hash del original, así que si ya existe su contenido es el mismo
+        return this.imageStorage.exists(variantName)
+                .flatMap(exists -> exists ? Mono.just(variantName) : Mono.usingWhen(
+                        Mono.fromCallable(() -> {
+                            Path tempFile = ImageFiles.createTempFile(this.basePath());
+                            ImageIO.write(resize(source, variantSize), format, tempFile.toFile());
+                            return tempFile;
+                        }).subscribeOn(this.variantsScheduler),
+                        tempFile -> this.imageStorage.store(variantName, tempFile).thenReturn(variantName),
+                        tempFile -> Mono.fromCallable(() -> Files.deleteIfExists(tempFile)).subscribeOn(Schedulers.boundedElastic())));
+    }
+
+    private static BufferedImage resize(BufferedImage source, int maxSize) {
+        double scale = Math.min(1d, (double) maxSize / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+
+        // RGB sobre fondo blanco: JPEG no admite canal alfa
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private Path basePath() {
+        return Paths.get(this.uploadsPath).toAbsolutePath().normalize();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import com.magadiflo.api.rest.app.models.services.IDistributedCache;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sin caché compartida: una única instancia solo necesita su caché local.
+ */
+@Component
+@ConditionalOnProperty(name = "config.cache.redis.enabled", havingValue = "false", matchIfMissing = true)
+public class NoOpDistributedCache implements IDistributedCache {
+
+    @Override
+    public <T> Mono<T> get(String region, String key, Class<T> type) {
+        return Mono.empty();
+    }
+
+    @Override
+    public Mono<Void> put(String region, String key, Object value) {
+        return Mono.empty();
+    }
+
+    @Override
+    public Mono<Void> evict(String region, String key) {
+        return Mono.empty();
+    }
+
+    @Override
+    public Flux<Invalidation> invalidations() {
+        return Flux.empty();
+    }
+}
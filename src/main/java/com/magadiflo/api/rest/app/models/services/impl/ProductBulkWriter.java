@@ -0,0 +1,139 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.BulkItemResult;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteUpsert;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Component
+public class ProductBulkWriter {
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    public ProductBulkWriter(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    /**
+     * Escribe el lote en un único bulkWrite. Los productos sin id se insertan (el id se genera aquí
+     * para poder informarlo por ítem). Los que traen id llevan dos operaciones: un updateOne que hace
+     * $set de sus campos y $inc de la versión, para que el ETag cambie igual que con un save, y un upsert
+     * que solo tiene $setOnInsert, para crear el documento con la versión 0 y la fecha de hoy si ese id
+     * no existe ($inc y $setOnInsert no pueden tocar la versión en la misma operación).
+     */
+    public Mono<List<BulkItemResult>> write(List<Tuple2<Long, Product>> items, boolean ordered) {
+        if (items.isEmpty()) {
+            return Mono.just(List.of());
+        }
+
+        ReactiveBulkOperations bulkOperations = this.reactiveMongoTemplate.bulkOps(ordered ? BulkMode.ORDERED : BulkMode.UNORDERED, Product.class);
+        List<BulkItemResult.Status> statuses = new ArrayList<>(items.size());
+        // Ítem al que pertenece cada operación del bulkWrite
+        List<Integer> itemOfOperation = new ArrayList<>();
+
+        for (int i = 0; i < items.size(); i++) {
+            Product product = items.get(i).getT2();
+            if (product.getId() == null) {
+                product.setId(new ObjectId().toHexString());
+                product.setVersion(0L);
+                if (product.getCreateAt() == null) {
+                    product.setCreateAt(LocalDate.now());
+                }
+                bulkOperations.insert(product);
+                statuses.add(BulkItemResult.Status.CREATED);
+                itemOfOperation.add(i);
+            } else {
+                Query query = Query.query(Criteria.where("id").is(product.getId()));
+                Document document = this.toDocument(product);
+                bulkOperations.updateOne(query, this.toUpdate(document));
+                bulkOperations.upsert(query, this.toInsert(document));
+                statuses.add(BulkItemResult.Status.UPDATED);
+                itemOfOperation.add(i);
+                itemOfOperation.add(i);
+            }
+        }
+
+        return bulkOperations.execute()
+                .map(bulkWriteResult -> this.toResults(items, statuses, itemOfOperation, bulkWriteResult.getUpserts(), List.of(), ordered))
+                .onErrorResume(MongoBulkWriteException.class, e -> Mono.just(this.toResults(items, statuses, itemOfOperation,
+                        e.getWriteResult().getUpserts(), e.getWriteErrors(), ordered)));
+    }
+
+    private Document toDocument(Product product) {
+        Document document = new Document();
+        this.reactiveMongoTemplate.getConverter().write(product, document);
+        document.remove("_id");
+        document.remove("version");
+        return document;
+    }
+
+    private Update toUpdate(Document document) {
+        Update update = new Update();
+        document.forEach((field, value) -> {
+            // La fecha de creación no se reescribe en una actualización
+            if (!"createAt".equals(field)) {
+                update.set(field, value);
+            }
+        });
+        return update.inc("version", 1);
+    }
+
+    private Update toInsert(Document document) {
+        Update update = new Update();
+        document.forEach(update::setOnInsert);
+        if (!document.containsKey("createAt")) {
+            update.setOnInsert("createAt", LocalDate.now());
+        }
+        return update.setOnInsert("version", 0L);
+    }
+
+    private List<BulkItemResult> toResults(List<Tuple2<Long, Product>> items, List<BulkItemResult.Status> statuses,
+                                           List<Integer> itemOfOperation, List<BulkWriteUpsert> upserts,
+                                           List<BulkWriteError> writeErrors, boolean ordered) {
+        // Un upsert que inserta significa que el id que trajo el ítem no existía
+        Set<Integer> created = upserts.stream()
+                .map(upsert -> itemOfOperation.get(upsert.getIndex()))
+                .collect(Collectors.toSet());
+        Map<Integer, BulkWriteError> errors = writeErrors.stream()
+                .collect(Collectors.toMap(error -> itemOfOperation.get(error.getIndex()), Function.identity(), (first, second) -> first));
+        // En modo ordenado Mongo se detiene en el primer error: lo que viene después no se ejecutó
+        int firstError = errors.keySet().stream().mapToInt(Integer::intValue).min().orElse(Integer.MAX_VALUE);
+        List<BulkItemResult> results = new ArrayList<>(items.size());
+
+        for (int i = 0; i < items.size(); i++) {
+            long index = items.get(i).getT1();
+            String id = items.get(i).getT2().getId();
+
+            if (errors.containsKey(i)) {
+                results.add(BulkItemResult.failed(index, id, errors.get(i).getMessage()));
+            } else if (ordered && i > firstError) {
+                results.add(BulkItemResult.of(index, id, BulkItemResult.Status.SKIPPED));
+            } else if (created.contains(i)) {
+                results.add(BulkItemResult.of(index, id, BulkItemResult.Status.CREATED));
+            } else {
+                results.add(BulkItemResult.of(index, id, statuses.get(i)));
+            }
+        }
+        return results;
+    }
+}
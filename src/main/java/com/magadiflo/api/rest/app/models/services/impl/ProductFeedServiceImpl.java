@@ -0,0 +1,280 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.ProductEvent;
+import com.magadiflo.api.rest.app.models.services.IProductFeedService;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Un único change stream sobre products compartido por todos los suscriptores. Quien reconecta con
+ * Last-Event-ID abre un change stream propio desde ese evento solo hasta alcanzar al compartido.
+ */
+@Service
+public class ProductFeedServiceImpl implements IProductFeedService {
+
+    private final static Logger LOG = LoggerFactory.getLogger(ProductFeedServiceImpl.class);
+    private final static Pattern RESUME_TOKEN = Pattern.compile("[0-9A-Fa-f]+");
+    // ChangeStreamHistoryLost: el token ya no está en el oplog
+    private final static int HISTORY_LOST = 286;
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final Flux<ProductEvent> sharedFeed;
+
+    @Value("${config.products.feed.heartbeat}")
+    private Duration heartbeat;
+
+    @Value("${config.products.feed.buffer-size}")
+    private int bufferSize;
+
+    public ProductFeedServiceImpl(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        // El stream se abre con el primer suscriptor y se cierra con el último
+        this.sharedFeed = Flux.defer(this::resilientChangeStream)
+                .publish()
+                .refCount();
+    }
+
+    /**
+     * Un suscriptor lento no frena a los demás: si llena su buffer se le corta la conexión y puede
+     * volver con Last-Event-ID sin perder eventos.
+     */
+    @Override
+    public Flux<ServerSentEvent<ProductEvent>> feed(String categoryId, Set<String> changedFields, String lastEventId) {
+        Flux<ProductEvent> events;
+        if (lastEventId == null) {
+            events = this.sharedFeed;
+        } else if (RESUME_TOKEN.matcher(lastEventId).matches()) {
+            events = this.resumedFeed(new BsonDocument("_data", new BsonString(lastEventId)));
+        } else {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Last-Event-ID no válido: %s".formatted(lastEventId)));
+        }
+
+        Flux<ServerSentEvent<ProductEvent>> productEvents = events
+                .filter(event -> matchesCategory(event, categoryId) && matchesFields(event, changedFields))
+                .onBackpressureBuffer(this.bufferSize)
+                // Un id vacío hace que el navegador deje de enviar el Last-Event-ID que no se pudo reanudar
+                .map(event -> ServerSentEvent.builder(event)
+                        .id(event.getResumeToken() == null ? "" : event.getResumeToken())
+                        .event(event.getOperation())
+                        .build());
+        // El primer comentario sale al conectar para que el cliente reciba las cabeceras de inmediato
+        Flux<ServerSentEvent<ProductEvent>> heartbeats = Flux.interval(Duration.ZERO, this.heartbeat)
+                .map(tick -> ServerSentEvent.<ProductEvent>builder().comment("keep-alive").build());
+
+        return Flux.merge(productEvents, heartbeats);
+    }
+
+    /**
+     * Reenvía los eventos desde el token y, en cuanto el change stream propio alcanza al compartido, sigue
+     * solo con este. Si Mongo rechaza el token, ya no tiene ese historial o el stream propio se corta antes
+     * de alcanzarlo, se envía un evento reset para que el cliente recargue su estado.
+     */
+    private Flux<ProductEvent> resumedFeed(BsonValue resumeToken) {
+        return Flux.defer(() -> {
+            CatchUp catchUp = new CatchUp(this.bufferSize);
+            Flux<FeedSignal> live = this.sharedFeed.map(event -> new FeedSignal(event, false));
+            Flux<FeedSignal> replay = this.changeStream(resumeToken)
+                    // Tras un invalidate el stream termina: el cliente recibe un reset
+                    .filter(changeStreamEvent -> changeStreamEvent.getOperationType() != OperationType.INVALIDATE)
+                    .map(changeStreamEvent -> new FeedSignal(toProductEvent(changeStreamEvent), true))
+                    .onErrorResume(e -> {
+                        LOG.warn("No se pudo reanudar el change stream de products desde {}: {}", resumeToken, e.getMessage());
+                        return Flux.empty();
+                    })
+                    .concatWith(Mono.fromSupplier(() -> new FeedSignal(null, true)))
+                    .takeUntilOther(catchUp.caughtUp.asMono());
+
+            // Primero el compartido: todo evento posterior a la suscripción llega al menos por uno de los dos
+            return Flux.merge(live, replay)
+                    .concatMapIterable(catchUp::next);
+        });
+    }
+
+    /**
+     * Si el stream se corta se reabre con backoff desde el último evento recibido.
+     */
+    private Flux<ProductEvent> resilientChangeStream() {
+        AtomicReference<BsonValue> lastToken = new AtomicReference<>();
+
+        return Flux.defer(() -> this.changeStream(lastToken.get()))
+                .doOnNext(changeStreamEvent -> lastToken.set(changeStreamEvent.getResumeToken()))
+                .doOnError(e -> {
+                    LOG.warn("Change stream de products interrumpido: {}", e.getMessage());
+                    if (e instanceof MongoCommandException commandException && commandException.getErrorCode() == HISTORY_LOST) {
+                        lastToken.set(null);
+                    }
+                })
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)))
+                .map(ProductFeedServiceImpl::toProductEvent);
+    }
+
+    private Flux<ChangeStreamEvent<Product>> changeStream(BsonValue resumeToken) {
+        ChangeStreamOptions.ChangeStreamOptionsBuilder options = ChangeStreamOptions.builder()
+                .filter(Aggregation.newAggregation(Aggregation.match(Criteria.where("operationType").in("insert", "update", "replace", "delete"))))
+                .fullDocumentLookup(FullDocument.UPDATE_LOOKUP);
+        // A diferencia de resumeAfter, startAfter también reanuda después de un invalidate
+        if (resumeToken != null) {
+            options.startAfter(resumeToken);
+        }
+        return this.reactiveMongoTemplate.changeStream("products", options.build(), Product.class);
+    }
+
+    private static ProductEvent toProductEvent(ChangeStreamEvent<Product> changeStreamEvent) {
+        ChangeStreamDocument<Document> raw = changeStreamEvent.getRaw();
+        Product product = changeStreamEvent.getBody();
+        BsonValue resumeToken = changeStreamEvent.getResumeToken();
+
+        return new ProductEvent(
+                resumeToken == null ? null : resumeToken.asDocument().getString("_data").getValue(),
+                changeStreamEvent.getOperationType() == null ? null : changeStreamEvent.getOperationType().getValue(),
+                product != null ? product.getId() : documentId(raw),
+                product,
+                updatedFields(raw),
+                changeStreamEvent.getTimestamp());
+    }
+
+    private static String documentId(ChangeStreamDocument<Document> raw) {
+        BsonValue id = raw == null || raw.getDocumentKey() == null ? null : raw.getDocumentKey().get("_id");
+        if (id == null) {
+            return null;
+        }
+        return id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.asString().getValue();
+    }
+
+    // null cuando el servidor no describe la actualización
+    private static Set<String> updatedFields(ChangeStreamDocument<Document> raw) {
+        if (raw == null || raw.getUpdateDescription() == null) {
+            return null;
+        }
+        Set<String> fields = new HashSet<>();
+        if (raw.getUpdateDescription().getUpdatedFields() != null) {
+            fields.addAll(raw.getUpdateDescription().getUpdatedFields().keySet());
+        }
+        if (raw.getUpdateDescription().getRemovedFields() != null) {
+            fields.addAll(raw.getUpdateDescription().getRemovedFields());
+        }
+        return fields;
+    }
+
+    /**
+     * Un borrado no trae el documento, así que se envía a todos: el cliente descarta los ids que no conoce.
+     */
+    private static boolean matchesCategory(ProductEvent event, String categoryId) {
+        if (categoryId == null || event.getProduct() == null) {
+            return true;
+        }
+        return event.getProduct().getCategory() != null && categoryId.equals(event.getProduct().getCategory().getId());
+    }
+
+    private static boolean matchesFields(ProductEvent event, Set<String> changedFields) {
+        if (changedFields == null || changedFields.isEmpty() || !"update".equals(event.getOperation()) || event.getUpdatedFields() == null) {
+            return true;
+        }
+        // "category" también coincide con "category.name"
+        return event.getUpdatedFields().stream()
+                .anyMatch(field -> changedFields.contains(field) || changedFields.contains(field.split("\\.")[0]));
+    }
+
+    // Un evento del stream compartido o del propio; sin evento, el propio terminó sin alcanzar al compartido
+    private record FeedSignal(ProductEvent event, boolean replayed) {
+    }
+
+    /**
+     * Mientras el stream propio no alcanza al compartido, los eventos de este se guardan. Cuando un mismo
+     * evento llega por los dos, se descarta lo repetido y se sigue solo con el compartido.
+     */
+    private static class CatchUp {
+        private final int maxPending;
+        private final Deque<ProductEvent> pending = new ArrayDeque<>();
+        // Los últimos tokens enviados por el stream propio, por si va por delante del compartido
+        private final Deque<String> replayedTokens = new ArrayDeque<>();
+        private final Sinks.Empty<Void> caughtUp = Sinks.empty();
+        private boolean replaying = true;
+
+        CatchUp(int maxPending) {
+            this.maxPending = maxPending;
+        }
+
+        List<ProductEvent> next(FeedSignal signal) {
+            ProductEvent event = signal.event();
+            if (!this.replaying) {
+                return signal.replayed() ? List.of() : List.of(event);
+            }
+
+            if (!signal.replayed()) {
+                if (this.replayedTokens.contains(event.getResumeToken())) {
+                    // El stream propio ya envió este evento y todo lo anterior
+                    return this.live(List.of());
+                }
+                if (this.pending.size() == this.maxPending) {
+                    throw Exceptions.failWithOverflow("El cliente no alcanzó al stream compartido de products");
+                }
+                this.pending.add(event);
+                return List.of();
+            }
+
+            if (event == null) {
+                return this.live(List.of(new ProductEvent(null, "reset", null, null, null, Instant.now())));
+            }
+            String resumeToken = event.getResumeToken();
+            if (this.pending.stream().anyMatch(pendingEvent -> resumeToken.equals(pendingEvent.getResumeToken()))) {
+                // Lo guardado hasta ese evento ya se envió por el stream propio
+                ProductEvent sent;
+                do {
+                    sent = this.pending.removeFirst();
+                } while (!resumeToken.equals(sent.getResumeToken()));
+                return this.live(List.of(event));
+            }
+            this.replayedTokens.add(resumeToken);
+            if (this.replayedTokens.size() > this.maxPending) {
+                this.replayedTokens.removeFirst();
+            }
+            return List.of(event);
+        }
+
+        private List<ProductEvent> live(List<ProductEvent> first) {
+            List<ProductEvent> events = new ArrayList<>(first);
+            events.addAll(this.pending);
+            this.pending.clear();
+            this.replayedTokens.clear();
+            this.replaying = false;
+            this.caughtUp.tryEmitEmpty();
+            return events;
+        }
+    }
+}
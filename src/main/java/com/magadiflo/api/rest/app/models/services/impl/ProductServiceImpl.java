@@ -1,32 +1,235 @@
 package com.magadiflo.api.rest.app.models.services.impl;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
 import com.magadiflo.api.rest.app.models.documents.Category;
 import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.documents.ProjectedProduct;
+import com.magadiflo.api.rest.app.models.dto.BulkItemResult;
+import com.magadiflo.api.rest.app.models.dto.CategoryStats;
+import com.magadiflo.api.rest.app.models.dto.MonthlyStats;
+import com.magadiflo.api.rest.app.models.dto.ProductFields;
+import com.magadiflo.api.rest.app.models.dto.ProductPage;
+import com.magadiflo.api.rest.app.models.exceptions.CategoryNotFoundException;
 import com.magadiflo.api.rest.app.models.repositories.ICategoryRepository;
 import com.magadiflo.api.rest.app.models.repositories.IProductRepository;
+import com.magadiflo.api.rest.app.models.services.IDistributedCache;
 import com.magadiflo.api.rest.app.models.services.IProductService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.Validator;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Service
 public class ProductServiceImpl implements IProductService {
+    private final static String STATS_KEY = "all";
+    private final static Set<String> PATCHABLE_FIELDS = Set.of("name", "price", "createAt", "category");
+
+    private record ProjectedRead(String id, Set<String> fields) {
+    }
+
     private final IProductRepository productRepository;
     private final ICategoryRepository categoryRepository;
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final AsyncCache<String, Product> productCache;
+    private final AsyncCache<String, Category> categoryCache;
+    private final AsyncCache<String, List<CategoryStats>> categoryStatsCache;
+    private final AsyncCache<String, List<MonthlyStats>> monthlyStatsCache;
+    private final ProductBulkWriter productBulkWriter;
+    private final ProductWriteBehind productWriteBehind;
+    private final IDistributedCache distributedCache;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final SingleFlight<ProjectedRead, Product> projectedReads = new SingleFlight<>();
+    private Disposable invalidations;
+
+    @Value("${config.products.page.default-size}")
+    private int defaultPageSize;
+
+    @Value("${config.products.page.max-size}")
+    private int maxPageSize;
+
+    @Value("${config.products.stream.batch-size}")
+    private int streamBatchSize;
+
+    @Value("${config.products.bulk.batch-size}")
+    private int bulkBatchSize;
 
-    public ProductServiceImpl(IProductRepository productRepository, ICategoryRepository categoryRepository) {
+    @Value("${config.products.search.default-limit}")
+    private int defaultSearchLimit;
+
+    @Value("${config.products.search.max-limit}")
+    private int maxSearchLimit;
+
+    @Value("${config.cache.stats.enabled}")
+    private boolean statsCacheEnabled;
+
+    @Value("${config.products.category-reference.enabled}")
+    private boolean categoryReference;
+
+    @Value("${config.products.category-reference.batch-size}")
+    private int categoryBatchSize;
+
+    public ProductServiceImpl(IProductRepository productRepository, ICategoryRepository categoryRepository,
+                              ReactiveMongoTemplate reactiveMongoTemplate,
+                              AsyncCache<String, Product> productCache, AsyncCache<String, Category> categoryCache,
+                              AsyncCache<String, List<CategoryStats>> categoryStatsCache,
+                              AsyncCache<String, List<MonthlyStats>> monthlyStatsCache,
+                              ProductBulkWriter productBulkWriter, ProductWriteBehind productWriteBehind,
+                              IDistributedCache distributedCache, Validator validator, ObjectMapper objectMapper) {
         this.productRepository = productRepository;
         this.categoryRepository = categoryRepository;
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.productCache = productCache;
+        this.categoryCache = categoryCache;
+        this.categoryStatsCache = categoryStatsCache;
+        this.monthlyStatsCache = monthlyStatsCache;
+        this.productBulkWriter = productBulkWriter;
+        this.productWriteBehind = productWriteBehind;
+        this.distributedCache = distributedCache;
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void init() {
+        // Los cambios hechos por cualquier instancia (también esta) llegan aquí y se quitan de la caché local
+        this.invalidations = this.distributedCache.invalidations().subscribe(invalidation -> {
+            switch (invalidation.region()) {
+                case IDistributedCache.PRODUCTS -> this.productCache.synchronous().invalidate(invalidation.key());
+                case IDistributedCache.CATEGORIES -> this.categoryCache.synchronous().invalidate(invalidation.key());
+                default -> {
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        this.invalidations.dispose();
     }
 
     @Override
     public Flux<Product> findAll() {
-        return this.productRepository.findAll();
+        return this.hydrate(this.productRepository.findAll());
+    }
+
+    @Override
+    public Mono<ProductPage> findPage(String cursor, Integer size, Set<String> fields) {
+        int pageSize = size == null ? this.defaultPageSize : Math.max(1, Math.min(size, this.maxPageSize));
+
+        Mono<Query> query = cursor == null ?
+                Mono.just(new Query()) :
+                Mono.fromCallable(() -> ProductPage.decodeCursor(cursor))
+                        .map(lastId -> Query.query(Criteria.where("id").gt(new ObjectId(lastId))));
+        Flux<Product> products = query.flatMapMany(q -> this.find(q.with(Sort.by("id")).limit(pageSize + 1), fields));
+
+        return this.hydrate(products).collectList()
+                .map(productList -> ProductPage.of(productList, pageSize));
+    }
+
+    @Override
+    public Flux<Product> streamAll() {
+        // La demanda hacia Mongo se pide por lotes del mismo tamaño que el cursor
+        Query query = new Query().cursorBatchSize(this.streamBatchSize);
+        return this.hydrate(this.reactiveMongoTemplate.find(query, Product.class))
+                .limitRate(this.streamBatchSize);
+    }
+
+    /**
+     * Una sola palabra se busca como prefijo del nombre (autocompletado) sobre el índice de searchName;
+     * varias palabras van al índice de texto y se ordenan por relevancia. Los filtros se añaden a la
+     * misma consulta y Mongo corta en el límite.
+     */
+    @Override
+    public Flux<Product> search(String q, String categoryId, Double minPrice, Double maxPrice, Integer limit, Set<String> fields) {
+        return Flux.defer(() -> {
+            String term = q == null ? "" : q.trim();
+            if (term.isEmpty()) {
+                return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "El parámetro q es obligatorio"));
+            }
+            if (categoryId != null && !ObjectId.isValid(categoryId)) {
+                return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "El id de categoría %s no es válido".formatted(categoryId)));
+            }
+
+            Query query;
+            if (term.contains(" ")) {
+                query = TextQuery.queryText(TextCriteria.forDefaultLanguage().matching(term)).sortByScore();
+            } else {
+                String prefix = Product.toSearchName(term).replaceAll("\\W", "\\\\$0");
+                query = Query.query(Criteria.where("searchName").regex("^" + prefix))
+                        .with(Sort.by("searchName"));
+            }
+
+            if (categoryId != null) {
+                query.addCriteria(Criteria.where("category._id").is(new ObjectId(categoryId)));
+            }
+            if (minPrice != null || maxPrice != null) {
+                Criteria price = Criteria.where("price");
+                if (minPrice != null) {
+                    price.gte(minPrice);
+                }
+                if (maxPrice != null) {
+                    price.lte(maxPrice);
+                }
+                query.addCriteria(price);
+            }
+            query.limit(limit == null ? this.defaultSearchLimit : Math.max(1, Math.min(limit, this.maxSearchLimit)));
+
+            return this.hydrate(this.find(query, fields));
+        });
+    }
+
+    @Override
+    public Flux<CategoryStats> findCategoryStats() {
+        return this.cachedStats(this.categoryStatsCache, this::aggregateCategoryStats);
+    }
+
+    @Override
+    public Flux<MonthlyStats> findMonthlyStats() {
+        return this.cachedStats(this.monthlyStatsCache, this::aggregateMonthlyStats);
     }
 
     @Override
     public Flux<Product> findAllWithNameUpperCase() {
-        return this.productRepository.findAll()
+        return this.findAll()
                 .map(product -> {
                     product.setName(product.getName().toUpperCase());
                     return product;
@@ -40,17 +243,228 @@ public class ProductServiceImpl implements IProductService {
 
     @Override
     public Mono<Product> findById(String id) {
-        return this.productRepository.findById(id);
+        // Las lecturas concurrentes de un mismo id comparten el future que Caffeine guarda para esa clave;
+        // cada una recibe su copia, porque quien la lee puede modificarla antes de guardarla
+        Mono<Product> productMono = Mono.fromFuture(() -> this.productCache.get(id, (key, executor) -> this.loadProduct(key).toFuture()), true)
+                .map(Product::new);
+        return this.hydrate(productMono);
+    }
+
+    /**
+     * Con fields se lee de Mongo solo lo pedido y no se guarda en la caché, que contiene productos completos;
+     * si el producto ya está en ella se copian de ahí los campos. Sin caché, las lecturas concurrentes del mismo
+     * id y los mismos campos comparten una única consulta.
+     */
+    @Override
+    public Mono<Product> findById(String id, Set<String> fields) {
+        if (fields == null) {
+            return this.findById(id);
+        }
+        CompletableFuture<Product> cached = this.productCache.getIfPresent(id);
+        Mono<Product> productMono = cached != null ?
+                Mono.fromFuture(cached, true).map(product -> ProductFields.select(product, fields)) :
+                this.projectedReads.execute(new ProjectedRead(id, fields),
+                        () -> this.find(Query.query(Criteria.where("id").is(id)).limit(1), fields).next());
+        return this.hydrate(productMono);
     }
 
     @Override
     public Mono<Product> saveProduct(Product product) {
-        return this.productRepository.save(product);
+        if (!this.categoryReference) {
+            return this.persist(product)
+                    .doOnNext(productDB -> this.invalidateStats())
+                    .delayUntil(productDB -> this.evictProduct(productDB.getId()))
+                    .onErrorResume(e -> this.evictFailedSave(product, e));
+        }
+
+        // Se guarda solo la referencia a la categoría; el nombre siempre sale de la colección categories
+        String categoryId = product.getCategory() == null ? null : product.getCategory().getId();
+        return Mono.justOrEmpty(categoryId)
+                .flatMap(this::findCategory)
+                .switchIfEmpty(Mono.error(() -> new CategoryNotFoundException(categoryId)))
+                .flatMap(category -> {
+                    product.setCategory(this.toReference(category));
+                    return this.persist(product)
+                            .doOnNext(productDB -> {
+                                this.invalidateStats();
+                                productDB.setCategory(category);
+                            })
+                            .delayUntil(productDB -> this.evictProduct(productDB.getId()))
+                            .onErrorResume(e -> this.evictFailedSave(product, e));
+                });
+    }
+
+    /**
+     * Si el guardado falla, lo que haya en la caché puede no coincidir con Mongo: se lee de nuevo.
+     */
+    private Mono<Product> evictFailedSave(Product product, Throwable error) {
+        return Mono.justOrEmpty(product.getId())
+                .flatMap(this::evictProduct)
+                .then(Mono.error(error));
+    }
+
+    private Mono<Product> persist(Product product) {
+        // Con write-behind el guardado espera a que se confirme el lote en el que se agrupa con los demás
+        return this.productWriteBehind.isEnabled() ? this.productWriteBehind.save(product) : this.productRepository.save(product);
+    }
+
+    @Override
+    public Flux<BulkItemResult> saveProducts(Flux<Product> products, boolean ordered) {
+        return Flux.defer(() -> {
+            AtomicBoolean halted = new AtomicBoolean(false);
+
+            return products.index()
+                    .buffer(this.bulkBatchSize)
+                    .concatMap(batch -> {
+                        // Un lote ordenado que falla detiene también los lotes siguientes
+                        if (halted.get()) {
+                            return Flux.fromIterable(batch)
+                                    .map(item -> BulkItemResult.of(item.getT1(), item.getT2().getId(), BulkItemResult.Status.SKIPPED));
+                        }
+                        return this.saveBatch(batch, ordered)
+                                .doOnNext(result -> {
+                                    if (result.getStatus() == BulkItemResult.Status.FAILED && ordered) {
+                                        halted.set(true);
+                                    }
+                                });
+                    });
+        });
+    }
+
+    private Flux<BulkItemResult> saveBatch(List<Tuple2<Long, Product>> batch, boolean ordered) {
+        return this.findCategoriesOf(batch.stream().map(Tuple2::getT2).toList())
+                .flatMapMany(categories -> {
+                    List<BulkItemResult> invalidItems = new ArrayList<>();
+                    List<Tuple2<Long, Product>> validItems = new ArrayList<>();
+
+                    for (Tuple2<Long, Product> item : batch) {
+                        Product product = item.getT2();
+                        List<String> errors = this.validate(product);
+
+                        if (errors.isEmpty() && this.categoryReference) {
+                            Category category = categories.get(product.getCategory().getId());
+                            if (category == null) {
+                                errors = List.of("No existe la categoría con id %s".formatted(product.getCategory().getId()));
+                            } else {
+                                product.setCategory(this.toReference(category));
+                            }
+                        }
+
+                        if (errors.isEmpty()) {
+                            validItems.add(item);
+                        } else {
+                            invalidItems.add(BulkItemResult.invalid(item.getT1(), product.getId(), errors));
+                        }
+                    }
+
+                    return this.productBulkWriter.write(validItems, ordered)
+                            .doOnNext(results -> this.invalidateStats())
+                            .delayUntil(results -> Flux.fromIterable(results)
+                                    .filter(result -> result.getStatus() == BulkItemResult.Status.UPDATED)
+                                    .flatMap(result -> this.evictProduct(result.getId())))
+                            .flatMapIterable(results -> {
+                                List<BulkItemResult> batchResults = new ArrayList<>(results);
+                                batchResults.addAll(invalidItems);
+                                batchResults.sort(Comparator.comparingLong(BulkItemResult::getIndex));
+                                return batchResults;
+                            });
+                });
+    }
+
+    /**
+     * Reemplaza nombre, precio y categoría en un único findAndModify; image, imageVariants y createAt
+     * no se reescriben. Con expectedVersion la escritura solo se aplica si la versión sigue siendo esa.
+     */
+    @Override
+    public Mono<Product> updateProduct(String id, Product product, Long expectedVersion) {
+        return this.toCategoryValue(product.getCategory())
+                .map(category -> new Update()
+                        .set("name", product.getName())
+                        .set("searchName", Product.toSearchName(product.getName()))
+                        .set("price", product.getPrice())
+                        .set("category", category))
+                .flatMap(update -> this.findAndModify(id, update, expectedVersion));
+    }
+
+    /**
+     * JSON Merge Patch (RFC 7386): solo se hace $set de los campos presentes y $unset de los que llegan
+     * a null. La categoría se sustituye entera porque se identifica por su id.
+     */
+    @Override
+    public Mono<Product> patchProduct(String id, Map<String, Object> patch, Long expectedVersion) {
+        return Mono.defer(() -> {
+            Set<String> unknownFields = patch.keySet().stream()
+                    .filter(field -> !PATCHABLE_FIELDS.contains(field))
+                    .collect(Collectors.toSet());
+            if (!unknownFields.isEmpty()) {
+                return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Los campos %s no se pueden modificar".formatted(unknownFields)));
+            }
+            List<String> requiredFields = patch.keySet().stream()
+                    .filter(field -> patch.get(field) == null && !field.equals("createAt"))
+                    .toList();
+            if (!requiredFields.isEmpty()) {
+                return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Los campos %s no pueden ser nulos".formatted(requiredFields)));
+            }
+
+            Product values;
+            try {
+                values = this.objectMapper.convertValue(patch, Product.class);
+            } catch (IllegalArgumentException e) {
+                return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "El patch no es válido: %s".formatted(e.getMessage())));
+            }
+            List<String> errors = this.validate(values).stream()
+                    .filter(error -> patch.keySet().stream().anyMatch(field -> error.startsWith("El campo %s ".formatted(field))))
+                    .toList();
+            if (!errors.isEmpty()) {
+                return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, String.join(", ", errors)));
+            }
+
+            Update update = new Update();
+            if (patch.containsKey("name")) {
+                update.set("name", values.getName()).set("searchName", values.getSearchName());
+            }
+            if (patch.containsKey("price")) {
+                update.set("price", values.getPrice());
+            }
+            if (patch.containsKey("createAt")) {
+                if (values.getCreateAt() == null) {
+                    update.unset("createAt");
+                } else {
+                    update.set("createAt", values.getCreateAt());
+                }
+            }
+            if (!patch.containsKey("category")) {
+                return this.findAndModify(id, update, expectedVersion);
+            }
+            return this.toCategoryValue(values.getCategory())
+                    .flatMap(category -> this.findAndModify(id, update.set("category", category), expectedVersion));
+        });
+    }
+
+    @Override
+    public Mono<Product> deleteById(String id, Long expectedVersion) {
+        return this.reactiveMongoTemplate.findAndRemove(this.byIdAndVersion(id, expectedVersion), Product.class)
+                .doOnNext(productDB -> this.invalidateStats())
+                .delayUntil(productDB -> this.evictProduct(id))
+                .switchIfEmpty(this.versionConflict(id, expectedVersion));
+    }
+
+    @Override
+    public Mono<Boolean> updateImageVariants(String id, String image, Map<String, String> imageVariants) {
+        // Solo se actualiza si la imagen no ha cambiado mientras se generaban las variantes
+        Query query = Query.query(Criteria.where("id").is(id).and("image").is(image));
+        // Las variantes forman parte de la representación, así que también cambian la versión (y el ETag)
+        Update update = Update.update("imageVariants", imageVariants).inc("version", 1);
+        return this.reactiveMongoTemplate.updateFirst(query, update, Product.class)
+                .map(updateResult -> updateResult.getModifiedCount() > 0)
+                .delayUntil(updated -> this.evictProduct(id));
     }
 
     @Override
     public Mono<Void> delete(Product product) {
-        return this.productRepository.delete(product);
+        return this.productRepository.delete(product)
+                .then(Mono.fromRunnable(this::invalidateStats))
+                .then(this.evictProduct(product.getId()));
     }
 
     @Override
@@ -60,7 +474,7 @@ public class ProductServiceImpl implements IProductService {
 
     @Override
     public Mono<Category> findCategory(String id) {
-        return this.categoryRepository.findById(id);
+        return Mono.fromFuture(() -> this.categoryCache.get(id, (key, executor) -> this.loadCategory(key).toFuture()), true);
     }
 
     @Override
@@ -70,11 +484,236 @@ public class ProductServiceImpl implements IProductService {
 
     @Override
     public Mono<Category> saveCategory(Category category) {
-        return this.categoryRepository.save(category);
+        return this.categoryRepository.save(category)
+                .delayUntil(categoryDB -> this.evictCategory(categoryDB.getId()));
     }
 
     @Override
     public Mono<Product> findByName(String name) {
-        return this.productRepository.findProduct(name);
+        return this.hydrate(this.productRepository.findProduct(name));
+    }
+
+    /**
+     * Las estadísticas se calculan en Mongo y se guardan hasta que un guardado o borrado de productos
+     * las invalida (o vence config.cache.stats.ttl); las peticiones concurrentes comparten la agregación.
+     */
+    private <T> Flux<T> cachedStats(AsyncCache<String, List<T>> cache, Supplier<Mono<List<T>>> aggregation) {
+        if (!this.statsCacheEnabled) {
+            return aggregation.get().flatMapIterable(Function.identity());
+        }
+        return Mono.fromFuture(() -> cache.get(STATS_KEY, (key, executor) -> aggregation.get().toFuture()), true)
+                .flatMapIterable(Function.identity());
+    }
+
+    private Mono<List<CategoryStats>> aggregateCategoryStats() {
+        TypedAggregation<Product> aggregation = Aggregation.newAggregation(Product.class,
+                Aggregation.group("category.id")
+                        .count().as("count")
+                        .min("price").as("minPrice")
+                        .max("price").as("maxPrice")
+                        .avg("price").as("avgPrice"),
+                Aggregation.project("count", "minPrice", "maxPrice", "avgPrice").and("categoryId").previousOperation(),
+                Aggregation.sort(Sort.Direction.ASC, "categoryId"));
+
+        // Los nombres salen de la caché de categorías, así sirve también en el modo por referencia
+        return this.reactiveMongoTemplate.aggregate(aggregation, CategoryStats.class)
+                .collectList()
+                .flatMap(statsList -> this.findCategoriesById(statsList.stream()
+                                .map(CategoryStats::getCategoryId)
+                                .filter(Objects::nonNull)
+                                .collect(Collectors.toSet()))
+                        .map(categories -> {
+                            statsList.forEach(stats -> {
+                                Category category = categories.get(stats.getCategoryId());
+                                stats.setCategoryName(category == null ? null : category.getName());
+                            });
+                            return statsList;
+                        }));
+    }
+
+    private Mono<List<MonthlyStats>> aggregateMonthlyStats() {
+        // createAt se guarda como fecha a medianoche de la zona del servidor: el mes se calcula en esa zona
+        TypedAggregation<Product> aggregation = Aggregation.newAggregation(Product.class,
+                Aggregation.match(Criteria.where("createAt").ne(null)),
+                Aggregation.project("price")
+                        .and(DateOperators.DateToString.dateOf("createAt")
+                                .toString("%Y-%m")
+                                .withTimezone(DateOperators.Timezone.fromZone(ZoneId.systemDefault())))
+                        .as("month"),
+                Aggregation.group("month")
+                        .count().as("count")
+                        .min("price").as("minPrice")
+                        .max("price").as("maxPrice")
+                        .avg("price").as("avgPrice"),
+                Aggregation.project("count", "minPrice", "maxPrice", "avgPrice").and("month").previousOperation(),
+                Aggregation.sort(Sort.Direction.ASC, "month"));
+
+        return this.reactiveMongoTemplate.aggregate(aggregation, MonthlyStats.class).collectList();
+    }
+
+    private Mono<Product> findAndModify(String id, Update update, Long expectedVersion) {
+        FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true);
+        return this.reactiveMongoTemplate.findAndModify(this.byIdAndVersion(id, expectedVersion), update.inc("version", 1), options, Product.class)
+                .doOnNext(productDB -> this.invalidateStats())
+                .delayUntil(productDB -> this.evictProduct(id))
+                .switchIfEmpty(this.versionConflict(id, expectedVersion))
+                .as(this::hydrate);
+    }
+
+    /**
+     * Con fields se leen de Mongo solo esos campos y el resultado es un ProjectedProduct, que no escribe los
+     * que quedaron a null.
+     */
+    private Flux<Product> find(Query query, Set<String> fields) {
+        if (fields == null) {
+            return this.reactiveMongoTemplate.find(query, Product.class);
+        }
+        fields.forEach(field -> query.fields().include(field));
+        return this.reactiveMongoTemplate.find(query, ProjectedProduct.class, this.reactiveMongoTemplate.getCollectionName(Product.class))
+                .cast(Product.class);
+    }
+
+    private Query byIdAndVersion(String id, Long expectedVersion) {
+        Query query = Query.query(Criteria.where("id").is(id));
+        if (expectedVersion != null) {
+            query.addCriteria(Criteria.where("version").is(expectedVersion));
+        }
+        return query;
+    }
+
+    /**
+     * Solo cuando la escritura condicionada no encuentra nada se consulta si el producto existe, para
+     * distinguir un 404 de una versión que ya no coincide.
+     */
+    private Mono<Product> versionConflict(String id, Long expectedVersion) {
+        if (expectedVersion == null) {
+            return Mono.empty();
+        }
+        return this.reactiveMongoTemplate.exists(Query.query(Criteria.where("id").is(id)), Product.class)
+                .filter(Boolean::booleanValue)
+                .flatMap(exists -> Mono.error(new OptimisticLockingFailureException("El producto %s ya no está en la versión %d".formatted(id, expectedVersion))));
+    }
+
+    /**
+     * En el modo por referencia la categoría debe existir y se guarda solo su id, igual que en saveProduct.
+     */
+    private Mono<Category> toCategoryValue(Category category) {
+        if (!this.categoryReference) {
+            return Mono.justOrEmpty(category)
+                    .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "La categoría es obligatoria")));
+        }
+        String categoryId = category == null ? null : category.getId();
+        return Mono.justOrEmpty(categoryId)
+                .flatMap(this::findCategory)
+                .switchIfEmpty(Mono.error(() -> new CategoryNotFoundException(categoryId)))
+                .map(this::toReference);
+    }
+
+    private void invalidateStats() {
+        this.categoryStatsCache.synchronous().invalidateAll();
+        this.monthlyStatsCache.synchronous().invalidateAll();
+    }
+
+    private Flux<Product> hydrate(Flux<Product> products) {
+        if (!this.categoryReference) {
+            return products;
+        }
+        return products.buffer(this.categoryBatchSize)
+                .concatMap(batch -> this.findCategoriesOf(batch)
+                        .flatMapIterable(categories -> {
+                            batch.forEach(product -> this.applyCategory(product, categories));
+                            return batch;
+                        }));
+    }
+
+    private Mono<Product> hydrate(Mono<Product> productMono) {
+        if (!this.categoryReference) {
+            return productMono;
+        }
+        return productMono.flatMap(product -> this.findCategoriesOf(List.of(product))
+                .map(categories -> this.applyCategory(product, categories)));
+    }
+
+    /**
+     * Resuelve las categorías de un lote de productos con un único findAllById para las que
+     * no estén ya en la caché de categorías.
+     */
+    private Mono<Map<String, Category>> findCategoriesOf(List<Product> products) {
+        if (!this.categoryReference) {
+            return Mono.just(Map.of());
+        }
+        Set<String> categoryIds = products.stream()
+                .map(Product::getCategory)
+                .filter(Objects::nonNull)
+                .map(Category::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        return this.findCategoriesById(categoryIds);
+    }
+
+    private Mono<Map<String, Category>> findCategoriesById(Set<String> categoryIds) {
+        return Mono.fromFuture(() -> this.categoryCache.getAll(categoryIds, (keys, executor) -> this.loadCategories(keys).toFuture()), true);
+    }
+
+    /**
+     * Lo que no está en la caché local se busca en la compartida antes que en Mongo. Un guardado que termine
+     * entre la lectura de Mongo y el put puede dejar en la caché compartida la versión anterior hasta que caduque.
+     */
+    private Mono<Product> loadProduct(String id) {
+        return this.distributedCache.get(IDistributedCache.PRODUCTS, id, Product.class)
+                .switchIfEmpty(Mono.defer(() -> this.productRepository.findById(id)
+                        .delayUntil(productDB -> this.distributedCache.put(IDistributedCache.PRODUCTS, id, productDB))));
+    }
+
+    private Mono<Category> loadCategory(String id) {
+        return this.distributedCache.get(IDistributedCache.CATEGORIES, id, Category.class)
+                .switchIfEmpty(Mono.defer(() -> this.categoryRepository.findById(id)
+                        .delayUntil(categoryDB -> this.distributedCache.put(IDistributedCache.CATEGORIES, id, categoryDB))));
+    }
+
+    private Mono<Map<String, Category>> loadCategories(Collection<? extends String> ids) {
+        return Flux.fromIterable(ids)
+                .flatMap(id -> this.distributedCache.get(IDistributedCache.CATEGORIES, id, Category.class))
+                .collectMap(Category::getId)
+                .flatMap(shared -> {
+                    List<String> missing = ids.stream().filter(id -> !shared.containsKey(id)).collect(Collectors.toList());
+                    if (missing.isEmpty()) {
+                        return Mono.just(shared);
+                    }
+                    return this.categoryRepository.findAllById(missing)
+                            .delayUntil(categoryDB -> this.distributedCache.put(IDistributedCache.CATEGORIES, categoryDB.getId(), categoryDB))
+                            .collectMap(Category::getId, Function.identity(), () -> new HashMap<>(shared));
+                });
+    }
+
+    private Mono<Void> evictProduct(String id) {
+        return Mono.fromRunnable(() -> this.productCache.synchronous().invalidate(id))
+                .then(this.distributedCache.evict(IDistributedCache.PRODUCTS, id));
+    }
+
+    private Mono<Void> evictCategory(String id) {
+        return Mono.fromRunnable(() -> this.categoryCache.synchronous().invalidate(id))
+                .then(this.distributedCache.evict(IDistributedCache.CATEGORIES, id));
+    }
+
+    private Product applyCategory(Product product, Map<String, Category> categories) {
+        if (product.getCategory() != null && categories.containsKey(product.getCategory().getId())) {
+            product.setCategory(categories.get(product.getCategory().getId()));
+        }
+        return product;
+    }
+
+    private Category toReference(Category category) {
+        Category reference = new Category();
+        reference.setId(category.getId());
+        return reference;
+    }
+
+    private List<String> validate(Product product) {
+        Errors errors = new BeanPropertyBindingResult(product, Product.class.getName());
+        this.validator.validate(product, errors);
+        return errors.getFieldErrors().stream()
+                .map(fieldError -> "El campo %s %s".formatted(fieldError.getField(), fieldError.getDefaultMessage()))
+                .toList();
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,230 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Escritura diferida de saveProduct (config.products.write-behind.enabled): los guardados se encolan y se
+ * escriben juntos en un bulkWrite cada batch-size productos o cada flush-window, lo que llegue antes. Cada
+ * petición termina cuando se confirma el lote en el que fue, con el mismo resultado que un save: el producto
+ * con su versión nueva, o un OptimisticLockingFailureException si su versión ya no era la actual.
+ */
+@Component
+public class ProductWriteBehind {
+
+    private record PendingWrite(Product product, Long expectedVersion, Sinks.One<Product> result) {
+    }
+
+    private record BatchResult(int matchedCount, Map<Integer, BulkWriteError> errors) {
+    }
+
+    private final static Duration EMIT_RETRY = Duration.ofMillis(100);
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final DistributionSummary batchSizes;
+    private Sinks.Many<PendingWrite> pendingWrites;
+    private Mono<Void> flushes;
+
+    @Value("${config.products.write-behind.enabled}")
+    private boolean enabled;
+
+    @Value("${config.products.write-behind.batch-size}")
+    private int batchSize;
+
+    @Value("${config.products.write-behind.flush-window}")
+    private Duration flushWindow;
+
+    @Value("${config.products.write-behind.queue-size}")
+    private int queueSize;
+
+    public ProductWriteBehind(ReactiveMongoTemplate reactiveMongoTemplate, MeterRegistry meterRegistry) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.batchSizes = DistributionSummary.builder("product.write.behind.batch")
+                .baseUnit("products")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!this.enabled) {
+            return;
+        }
+        this.pendingWrites = Sinks.many().unicast().onBackpressureBuffer(Queues.<PendingWrite>get(this.queueSize).get());
+        // Un lote a la vez: dos escrituras del mismo producto no se adelantan entre lotes
+        this.flushes = this.pendingWrites.asFlux()
+                .bufferTimeout(this.batchSize, this.flushWindow, true)
+                .concatMap(this::flush)
+                .then()
+                .cache();
+        this.flushes.subscribe();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (this.pendingWrites == null) {
+            return;
+        }
+        // Lo que ya está en la cola se escribe antes de cerrar la conexión con Mongo
+        this.pendingWrites.emitComplete(Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+        this.flushes.block(Duration.ofSeconds(30));
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public Mono<Product> save(Product product) {
+        return Mono.defer(() -> {
+            Sinks.One<Product> result = Sinks.one();
+            PendingWrite pendingWrite = new PendingWrite(product, product.getVersion(), result);
+            // Otra petición está encolando a la vez: se reintenta durante EMIT_RETRY; con la cola llena o cerrada se
+            // rechaza. No se usa emitNext porque ante un desbordamiento terminaría el sink y con él toda la cola
+            Sinks.EmitFailureHandler retry = Sinks.EmitFailureHandler.busyLooping(EMIT_RETRY);
+            Sinks.EmitResult emitResult;
+            do {
+                emitResult = this.pendingWrites.tryEmitNext(pendingWrite);
+            } while (emitResult.isFailure() && retry.onEmitFailure(SignalType.ON_NEXT, emitResult));
+
+            if (emitResult.isFailure()) {
+                return Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Hay demasiadas escrituras de productos pendientes"));
+            }
+            return result.asMono();
+        });
+    }
+
+    private Mono<Void> flush(List<PendingWrite> batch) {
+        this.batchSizes.record(batch.size());
+        // Un error del lote se entrega a sus peticiones y no corta la cola
+        return Mono.defer(() -> this.write(batch))
+                .onErrorResume(e -> {
+                    batch.forEach(pendingWrite -> this.fail(pendingWrite, e));
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Void> write(List<PendingWrite> batch) {
+        ReactiveBulkOperations bulkOperations = this.reactiveMongoTemplate.bulkOps(BulkMode.UNORDERED, Product.class);
+        List<PendingWrite> writes = new ArrayList<>(batch.size());
+        Set<String> ids = new HashSet<>();
+
+        for (PendingWrite pendingWrite : batch) {
+            Product product = pendingWrite.product();
+            if (product.getId() == null) {
+                product.setId(new ObjectId().toHexString());
+            } else if (!ids.add(product.getId())) {
+                // Dos escrituras del mismo producto en un lote parten de la misma versión: solo se aplica la primera
+                pendingWrite.result().tryEmitError(conflict(pendingWrite));
+                continue;
+            }
+            if (pendingWrite.expectedVersion() == null) {
+                product.setVersion(0L);
+                bulkOperations.insert(product);
+            } else {
+                product.setVersion(pendingWrite.expectedVersion() + 1);
+                bulkOperations.replaceOne(Query.query(Criteria.where("id").is(product.getId()).and("version").is(pendingWrite.expectedVersion())), product);
+            }
+            writes.add(pendingWrite);
+        }
+
+        if (writes.isEmpty()) {
+            return Mono.empty();
+        }
+        return bulkOperations.execute()
+                .map(bulkWriteResult -> new BatchResult(bulkWriteResult.getMatchedCount(), Map.of()))
+                .onErrorResume(MongoBulkWriteException.class, e -> Mono.just(new BatchResult(e.getWriteResult().getMatchedCount(),
+                        e.getWriteErrors().stream().collect(Collectors.toMap(BulkWriteError::getIndex, Function.identity())))))
+                .flatMap(batchResult -> this.findUnmatched(writes, batchResult)
+                        .doOnNext(unmatched -> this.complete(writes, batchResult.errors(), unmatched)))
+                .then();
+    }
+
+    /**
+     * El bulkWrite solo informa del total de reemplazos aplicados; si faltan, se leen los productos del lote y
+     * se da por aplicado el reemplazo cuyo documento es el que se escribió. La versión sola no basta: otro
+     * guardado que partía de la misma versión deja en Mongo esa misma versión nueva.
+     */
+    private Mono<Set<String>> findUnmatched(List<PendingWrite> writes, BatchResult batchResult) {
+        List<PendingWrite> replaces = new ArrayList<>();
+        for (int i = 0; i < writes.size(); i++) {
+            if (writes.get(i).expectedVersion() != null && !batchResult.errors().containsKey(i)) {
+                replaces.add(writes.get(i));
+            }
+        }
+        if (batchResult.matchedCount() >= replaces.size()) {
+            return Mono.just(Set.of());
+        }
+
+        Query query = Query.query(Criteria.where("id").in(replaces.stream().map(pendingWrite -> pendingWrite.product().getId()).toList()));
+        return this.reactiveMongoTemplate.find(query, Product.class)
+                .collectMap(Product::getId, this::toDocument)
+                .map(stored -> replaces.stream()
+                        .filter(pendingWrite -> !this.toDocument(pendingWrite.product()).equals(stored.get(pendingWrite.product().getId())))
+                        .map(pendingWrite -> pendingWrite.product().getId())
+                        .collect(Collectors.toSet()));
+    }
+
+    private Document toDocument(Product product) {
+        Document document = new Document();
+        this.reactiveMongoTemplate.getConverter().write(product, document);
+        return document;
+    }
+
+    private void complete(List<PendingWrite> writes, Map<Integer, BulkWriteError> errors, Set<String> unmatched) {
+        for (int i = 0; i < writes.size(); i++) {
+            PendingWrite pendingWrite = writes.get(i);
+            BulkWriteError error = errors.get(i);
+            if (error != null) {
+                this.fail(pendingWrite, ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY ?
+                        new DuplicateKeyException(error.getMessage()) :
+                        new DataIntegrityViolationException(error.getMessage()));
+            } else if (pendingWrite.expectedVersion() != null && unmatched.contains(pendingWrite.product().getId())) {
+                this.fail(pendingWrite, conflict(pendingWrite));
+            } else {
+                pendingWrite.result().tryEmitValue(pendingWrite.product());
+            }
+        }
+    }
+
+    private void fail(PendingWrite pendingWrite, Throwable error) {
+        pendingWrite.product().setVersion(pendingWrite.expectedVersion());
+        pendingWrite.result().tryEmitError(error);
+    }
+
+    private static OptimisticLockingFailureException conflict(PendingWrite pendingWrite) {
+        return new OptimisticLockingFailureException("El producto %s ya no está en la versión %d"
+                .formatted(pendingWrite.product().getId(), pendingWrite.expectedVersion()));
+    }
+}
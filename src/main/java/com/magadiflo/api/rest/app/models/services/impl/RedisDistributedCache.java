@@ -0,0 +1,100 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import com.magadiflo.api.rest.app.models.services.IDistributedCache;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+
+/**
+ * Caché compartida en Redis. Los documentos se guardan como el JSON del documento de Mongo (con el mismo
+ * MongoConverter), así que se recuperan con su id, su versión y el resto de campos que no salen por la API.
+ * Si Redis no responde las lecturas van a Mongo: la caché compartida nunca hace fallar una petición.
+ */
+@Component
+@ConditionalOnProperty(name = "config.cache.redis.enabled", havingValue = "true")
+public class RedisDistributedCache implements IDistributedCache {
+
+    private final static Logger LOG = LoggerFactory.getLogger(RedisDistributedCache.class);
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final MongoConverter mongoConverter;
+
+    @Value("${config.cache.redis.key-prefix}")
+    private String keyPrefix;
+
+    @Value("${config.cache.redis.ttl}")
+    private Duration ttl;
+
+    public RedisDistributedCache(ReactiveStringRedisTemplate redisTemplate, ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.redisTemplate = redisTemplate;
+        this.mongoConverter = reactiveMongoTemplate.getConverter();
+    }
+
+    @Override
+    public <T> Mono<T> get(String region, String key, Class<T> type) {
+        return this.redisTemplate.opsForValue().get(this.key(region, key))
+                .map(json -> this.mongoConverter.read(type, Document.parse(json)))
+                .onErrorResume(e -> {
+                    LOG.warn("No se pudo leer {} de Redis: {}", this.key(region, key), e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    @Override
+    public Mono<Void> put(String region, String key, Object value) {
+        return Mono.fromSupplier(() -> {
+                    Document document = new Document();
+                    this.mongoConverter.write(value, document);
+                    return document.toJson();
+                })
+                .flatMap(json -> this.redisTemplate.opsForValue().set(this.key(region, key), json, this.ttl))
+                .onErrorResume(e -> {
+                    LOG.warn("No se pudo guardar {} en Redis: {}", this.key(region, key), e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    @Override
+    public Mono<Void> evict(String region, String key) {
+        return this.redisTemplate.delete(this.key(region, key))
+                .then(this.redisTemplate.convertAndSend(this.channel(), region + ":" + key))
+                .onErrorResume(e -> {
+                    // La entrada caduca con el ttl; hasta entonces otra instancia puede servir la versión anterior
+                    LOG.warn("No se pudo invalidar {} en Redis: {}", this.key(region, key), e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    @Override
+    public Flux<Invalidation> invalidations() {
+        // listenToChannel se conecta al llamarlo: con defer el reintento también cubre esa conexión
+        return Flux.defer(() -> this.redisTemplate.listenToChannel(this.channel()))
+                .map(message -> {
+                    String[] regionAndKey = message.getMessage().split(":", 2);
+                    return new Invalidation(regionAndKey[0], regionAndKey[1]);
+                })
+                .doOnError(e -> LOG.warn("Se perdió la suscripción a {}: {}", this.channel(), e.getMessage()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)));
+    }
+
+    private String key(String region, String key) {
+        return this.keyPrefix + ":" + region + ":" + key;
+    }
+
+    private String channel() {
+        return this.keyPrefix + ":invalidations";
+    }
+}
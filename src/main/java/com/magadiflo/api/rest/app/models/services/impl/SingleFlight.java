@@ -0,0 +1,34 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Comparte una única lectura en curso por clave entre todos los que la piden a la vez. No es una caché:
+ * en cuanto la lectura termina (con valor, vacía o con error) se olvida y la siguiente petición vuelve a leer.
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    Mono<V> execute(K key, Supplier<Mono<V>> loader) {
+        return Mono.defer(() -> {
+            Mono<V> running = this.inFlight.get(key);
+            if (running != null) {
+                return running;
+            }
+            AtomicReference<Mono<V>> self = new AtomicReference<>();
+            // cache() no cancela la lectura si se va un suscriptor: los demás siguen recibiendo el resultado
+            Mono<V> shared = Mono.defer(loader)
+                    .doFinally(signalType -> this.inFlight.remove(key, self.get()))
+                    .cache();
+            self.set(shared);
+            running = this.inFlight.putIfAbsent(key, shared);
+            return running != null ? running : shared;
+        });
+    }
+}
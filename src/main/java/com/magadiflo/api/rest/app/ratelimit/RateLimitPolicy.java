@@ -0,0 +1,9 @@
+package com.magadiflo.api.rest.app.ratelimit;
+
+/**
+ * @param capacity        ráfaga máxima de peticiones de un cliente en una ruta
+ * @param refillPerSecond tokens que recupera el cubo por segundo
+ * @param maxConcurrent   peticiones simultáneas en la ruta (de todos los clientes); 0 sin límite
+ */
+public record RateLimitPolicy(String name, int capacity, double refillPerSecond, int maxConcurrent) {
+}
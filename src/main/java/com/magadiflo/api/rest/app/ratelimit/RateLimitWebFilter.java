@@ -0,0 +1,70 @@
+package com.magadiflo.api.rest.app.ratelimit;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.reactive.result.method.RequestMappingInfo;
+import org.springframework.web.reactive.result.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Aplica las políticas de los métodos anotados con @RateLimited. Los mappings anotados se buscan una
+ * sola vez al arrancar y en cada petición solo se comprueban esos, sin resolver el handler completo.
+ */
+@Component
+public class RateLimitWebFilter implements WebFilter, SmartInitializingSingleton {
+
+    private record LimitedRoute(RequestMappingInfo mappingInfo, RateLimitPolicy policy) {
+    }
+
+    private final RateLimiter rateLimiter;
+    private final RequestMappingHandlerMapping handlerMapping;
+    private List<LimitedRoute> limitedRoutes = List.of();
+
+    public RateLimitWebFilter(RateLimiter rateLimiter,
+                              @Qualifier("requestMappingHandlerMapping") RequestMappingHandlerMapping handlerMapping) {
+        this.rateLimiter = rateLimiter;
+        this.handlerMapping = handlerMapping;
+    }
+
+    /**
+     * Con todos los beans creados los mappings ya están registrados; una política que no exista en la
+     * configuración hace fallar el arranque.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        this.limitedRoutes = this.handlerMapping.getHandlerMethods().entrySet().stream()
+                .filter(entry -> entry.getValue().hasMethodAnnotation(RateLimited.class))
+                .map(entry -> new LimitedRoute(entry.getKey(), this.policyOf(entry.getValue())))
+                .toList();
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        for (LimitedRoute limitedRoute : this.limitedRoutes) {
+            RequestMappingInfo match = limitedRoute.mappingInfo().getMatchingCondition(exchange);
+            if (match != null) {
+                String route = match.getPatternsCondition().getPatterns().iterator().next().getPatternString();
+                return this.rateLimiter.limit(limitedRoute.policy(), route, exchange.getRequest(), () -> chain.filter(exchange),
+                        retryAfter -> {
+                            exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+                            exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, RateLimiter.retryAfterSeconds(retryAfter));
+                            return exchange.getResponse().setComplete();
+                        });
+            }
+        }
+        return chain.filter(exchange);
+    }
+
+    private RateLimitPolicy policyOf(HandlerMethod handlerMethod) {
+        return this.rateLimiter.policy(handlerMethod.getMethodAnnotation(RateLimited.class).value());
+    }
+}
@@ -0,0 +1,18 @@
+package com.magadiflo.api.rest.app.ratelimit;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Aplica a un método de un @RestController la política config.rate-limit.policies.{value}: cubo de
+ * tokens por cliente y ruta, más un límite de peticiones concurrentes por ruta si la política lo define.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimited {
+    String value();
+}
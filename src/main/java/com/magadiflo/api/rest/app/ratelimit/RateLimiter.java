@@ -0,0 +1,222 @@
+package com.magadiflo.api.rest.app.ratelimit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseCookie;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.server.HandlerFilterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.pattern.PathPattern;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Limita las peticiones por política: un cubo de tokens por cliente y ruta y, si la política lo pide, un
+ * máximo de peticiones concurrentes por ruta. El rechazo es inmediato (429 con Retry-After), nunca se
+ * deja la petición esperando.
+ */
+@Component
+public class RateLimiter {
+
+    private final static String REJECTED_METRIC = "rate.limit.rejected";
+    private final static String IN_FLIGHT_METRIC = "rate.limit.in.flight";
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, RateLimitPolicy> policies = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final Cache<String, TokenBucket> buckets;
+
+    @Value("${config.rate-limit.enabled}")
+    private boolean enabled;
+
+    @Value("${config.rate-limit.client-key-header}")
+    private String clientKeyHeader;
+
+    @Value("${config.rate-limit.api-keys}")
+    private Set<String> apiKeys;
+
+    public RateLimiter(Environment environment, MeterRegistry meterRegistry,
+                       @Value("${config.rate-limit.buckets.max-size}") long maxBuckets,
+                       @Value("${config.rate-limit.buckets.expire-after-access}") Duration bucketExpiration) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+        // Un cubo que lleva tiempo sin usarse estaría lleno: descartarlo equivale a crearlo de nuevo
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxBuckets)
+                .expireAfterAccess(bucketExpiration)
+                .build();
+    }
+
+    public RateLimitPolicy policy(String name) {
+        return this.policies.computeIfAbsent(name, key -> {
+            String prefix = "config.rate-limit.policies.%s.".formatted(key);
+            return new RateLimitPolicy(key,
+                    this.environment.getRequiredProperty(prefix + "capacity", Integer.class),
+                    this.environment.getRequiredProperty(prefix + "refill-per-second", Double.class),
+                    this.environment.getProperty(prefix + "max-concurrent", Integer.class, 0));
+        });
+    }
+
+    /**
+     * Ejecuta call si la petición cabe en la política; si no, devuelve onRejected con el tiempo que el
+     * cliente debería esperar. El permiso de concurrencia se libera cuando termina el Mono de call.
+     */
+    public <T> Mono<T> limit(RateLimitPolicy policy, String route, ServerHttpRequest request,
+                             Supplier<Mono<T>> call, Function<Duration, Mono<T>> onRejected) {
+        return this.limit(policy, route, request, onRejected, release -> call.get().doFinally(signalType -> release.run()));
+    }
+
+    /**
+     * Filtro para las rutas funcionales de RouterFunctionConfig; la ruta es el patrón que coincidió. El
+     * ServerResponse se devuelve antes de escribir el cuerpo (p.ej. el Flux de un bulk), así que el permiso
+     * se libera al terminar su writeTo y no al emitirlo.
+     */
+    public HandlerFilterFunction<ServerResponse, ServerResponse> filter(String policyName) {
+        RateLimitPolicy policy = this.policy(policyName);
+        return (request, next) -> {
+            String route = request.attribute(RouterFunctions.MATCHING_PATTERN_ATTRIBUTE)
+                    .map(pattern -> ((PathPattern) pattern).getPatternString())
+                    .orElse(request.path());
+            return this.limit(policy, route, request.exchange().getRequest(),
+                    retryAfter -> ServerResponse.status(HttpStatus.TOO_MANY_REQUESTS)
+                            .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds(retryAfter))
+                            .build(),
+                    release -> next.handle(request).map(response -> new PermitReleasingResponse(response, release)));
+        };
+    }
+
+    /**
+     * call recibe la liberación del permiso y se encarga de llamarla; si su Mono falla, se cancela o termina
+     * vacío se libera aquí. Liberar más de una vez no tiene efecto.
+     */
+    private <T> Mono<T> limit(RateLimitPolicy policy, String route, ServerHttpRequest request,
+                              Function<Duration, Mono<T>> onRejected, Function<Runnable, Mono<T>> call) {
+        if (!this.enabled) {
+            return Mono.defer(() -> call.apply(() -> {
+            }));
+        }
+        return Mono.defer(() -> {
+            String bucketKey = policy.name() + '|' + route + '|' + this.clientKey(request);
+            long waitNanos = this.buckets.get(bucketKey, key -> new TokenBucket(policy.capacity(), policy.refillPerSecond(), System.nanoTime()))
+                    .tryConsume(System.nanoTime());
+            if (waitNanos > 0) {
+                this.rejected(policy, route, "rate").increment();
+                return onRejected.apply(Duration.ofNanos(waitNanos));
+            }
+            if (policy.maxConcurrent() <= 0) {
+                return call.apply(() -> {
+                });
+            }
+
+            AtomicInteger routeInFlight = this.inFlight(policy, route);
+            if (routeInFlight.incrementAndGet() > policy.maxConcurrent()) {
+                routeInFlight.decrementAndGet();
+                this.rejected(policy, route, "concurrency").increment();
+                return onRejected.apply(Duration.ofSeconds(1));
+            }
+            AtomicBoolean released = new AtomicBoolean();
+            Runnable release = () -> {
+                if (released.compareAndSet(false, true)) {
+                    routeInFlight.decrementAndGet();
+                }
+            };
+            return call.apply(release)
+                    .doOnSuccess(value -> {
+                        if (value == null) {
+                            release.run();
+                        }
+                    })
+                    .doOnError(e -> release.run())
+                    .doOnCancel(release);
+        });
+    }
+
+    static String retryAfterSeconds(Duration retryAfter) {
+        return String.valueOf(Math.max(1, (long) Math.ceil(retryAfter.toNanos() / (double) TimeUnit.SECONDS.toNanos(1))));
+    }
+
+    /**
+     * Solo una clave de config.rate-limit.api-keys tiene su propio cubo. Con cualquier otra se limita por
+     * IP: si no, cambiar de clave en cada petición daría un cubo nuevo cada vez.
+     */
+    private String clientKey(ServerHttpRequest request) {
+        String apiKey = request.getHeaders().getFirst(this.clientKeyHeader);
+        if (apiKey != null && this.apiKeys.contains(apiKey)) {
+            return "key:" + apiKey;
+        }
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        return remoteAddress == null ? "anonymous" : "ip:" + remoteAddress.getHostString();
+    }
+
+    private AtomicInteger inFlight(RateLimitPolicy policy, String route) {
+        return this.inFlight.computeIfAbsent(policy.name() + '|' + route, key -> {
+            AtomicInteger counter = new AtomicInteger();
+            Gauge.builder(IN_FLIGHT_METRIC, counter, AtomicInteger::get)
+                    .tag("policy", policy.name())
+                    .tag("route", route)
+                    .register(this.meterRegistry);
+            return counter;
+        });
+    }
+
+    private Counter rejected(RateLimitPolicy policy, String route, String reason) {
+        return Counter.builder(REJECTED_METRIC)
+                .tag("policy", policy.name())
+                .tag("route", route)
+                .tag("reason", reason)
+                .register(this.meterRegistry);
+    }
+
+    private record PermitReleasingResponse(ServerResponse response, Runnable release) implements ServerResponse {
+
+        @Override
+        public HttpStatusCode statusCode() {
+            return this.response.statusCode();
+        }
+
+        @Override
+        @Deprecated
+        public int rawStatusCode() {
+            return this.response.statusCode().value();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return this.response.headers();
+        }
+
+        @Override
+        public MultiValueMap<String, ResponseCookie> cookies() {
+            return this.response.cookies();
+        }
+
+        @Override
+        public Mono<Void> writeTo(ServerWebExchange exchange, Context context) {
+            return Mono.defer(() -> this.response.writeTo(exchange, context))
+                    .doFinally(signalType -> this.release.run());
+        }
+    }
+}
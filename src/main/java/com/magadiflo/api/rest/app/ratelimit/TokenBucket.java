@@ -0,0 +1,33 @@
+package com.magadiflo.api.rest.app.ratelimit;
+
+/**
+ * Cubo de tokens que se rellena de forma perezosa al consultarlo, sin tareas programadas.
+ */
+final class TokenBucket {
+
+    private final int capacity;
+    private final double refillPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(int capacity, double refillPerSecond, long now) {
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Consume un token si hay alguno. Devuelve 0 si la petición pasa o, si no, los nanosegundos que faltan
+     * para el siguiente token.
+     */
+    synchronized long tryConsume(long now) {
+        this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.refillPerNano);
+        this.lastRefill = now;
+        if (this.tokens >= 1) {
+            this.tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - this.tokens) / this.refillPerNano);
+    }
+}
@@ -0,0 +1,112 @@
+package com.magadiflo.api.rest.app.controllers;
+
+import com.magadiflo.api.rest.app.models.documents.Category;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.services.IProductService;
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.Collections;
+import java.util.List;
+
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        properties = "config.products.category-reference.enabled=true")
+class ProductCategoryReferenceTest {
+    @Autowired
+    private WebTestClient webTestClient;
+    @Autowired
+    private IProductService productService;
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Test
+    void should_store_only_the_category_reference() {
+        Document document = this.reactiveMongoTemplate.findOne(Query.query(Criteria.where("name").is("Teclado Micronics")), Document.class, "products").block();
+
+        Assertions.assertNotNull(document);
+        Document category = document.get("category", Document.class);
+        Assertions.assertNotNull(category.get("_id"));
+        Assertions.assertFalse(category.containsKey("name"));
+
+        this.webTestClient.get()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", document.getObjectId("_id").toHexString()))
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.category.name").isEqualTo("Electrónico");
+    }
+
+    @Test
+    void should_show_a_renamed_category_in_product_reads() {
+        Product productDB = this.productService.findByName("Bicicleta Monteñera").block();
+        Category categoryDB = this.productService.findCategoryByName("Deporte").block();
+        // Las cachés de producto y de categoría ya tienen la versión anterior
+        String eTag = this.webTestClient.get()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectBody()
+                .jsonPath("$.category.name").isEqualTo("Deporte")
+                .returnResult()
+                .getResponseHeaders()
+                .getETag();
+
+        categoryDB.setName("Deportes y ocio");
+        this.productService.saveCategory(categoryDB).block();
+        try {
+            // La versión del producto no cambia, pero el ETag sí: If-None-Match no puede devolver un 304
+            this.webTestClient.get()
+                    .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                    .accept(MediaType.APPLICATION_JSON)
+                    .ifNoneMatch(eTag)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody()
+                    .jsonPath("$.category.name").isEqualTo("Deportes y ocio");
+
+            this.webTestClient.get().uri("/api/v1/products")
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBodyList(Product.class)
+                    .consumeWith(result -> assertCategoryName(result.getResponseBody(), productDB.getId()));
+
+            this.webTestClient.get().uri("/api/v1/products")
+                    .accept(MediaType.APPLICATION_NDJSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBodyList(Product.class)
+                    .consumeWith(result -> assertCategoryName(result.getResponseBody(), productDB.getId()));
+
+            this.webTestClient.get().uri("/api/v1/products/search?q=bicicleta")
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBodyList(Product.class)
+                    .consumeWith(result -> assertCategoryName(result.getResponseBody(), productDB.getId()));
+        } finally {
+            categoryDB.setName("Deporte");
+            this.productService.saveCategory(categoryDB).block();
+        }
+    }
+
+    private static void assertCategoryName(List<Product> products, String productId) {
+        Assertions.assertNotNull(products);
+        Product product = products.stream()
+                .filter(candidate -> candidate.getId().equals(productId))
+                .findFirst()
+                .orElseThrow();
+        Assertions.assertEquals("Deportes y ocio", product.getCategory().getName());
+    }
+}
@@ -1,26 +1,61 @@
 package com.magadiflo.api.rest.app.controllers;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
 import com.magadiflo.api.rest.app.models.documents.Category;
 import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.ProductFields;
+import com.magadiflo.api.rest.app.models.dto.ProductPage;
+import com.magadiflo.api.rest.app.models.repositories.config.MongoIndexInitializer;
 import com.magadiflo.api.rest.app.models.services.IProductService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.LocalDate;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @AutoConfigureWebTestClient
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        properties = "config.rate-limit.api-keys=cliente-insistente,otro-cliente")
 class ProductControllerMockTest {
     @Autowired
     private WebTestClient webTestClient;
     @Autowired
     private IProductService productService;
+    @Autowired
+    private AsyncCache<String, Product> productCache;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private MongoIndexInitializer mongoIndexInitializer;
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+    @Autowired
+    private ApplicationContext applicationContext;
 
     @Test
     void should_list_all_products() {
@@ -135,4 +170,692 @@ class ProductControllerMockTest {
                 .expectBody()
                 .isEmpty();
     }
-}
\ No newline at end of file
+
+    @Test
+    void should_list_products_by_pages_using_a_cursor() {
+        WebTestClient.ResponseSpec firstPage = this.webTestClient.get().uri("/api/v1/products?size=5")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange();
+
+        String nextCursor = firstPage.expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.LINK)
+                .expectHeader().exists(ProductPage.NEXT_CURSOR_HEADER)
+                .expectBodyList(Product.class)
+                .hasSize(5)
+                .returnResult()
+                .getResponseHeaders()
+                .getFirst(ProductPage.NEXT_CURSOR_HEADER);
+
+        WebTestClient.ResponseSpec secondPage = this.webTestClient.get().uri("/api/v1/products?size=5&cursor={cursor}", nextCursor)
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange();
+
+        secondPage.expectStatus().isOk()
+                .expectBodyList(Product.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    List<Product> products = listEntityExchangeResult.getResponseBody();
+
+                    Assertions.assertNotNull(products);
+                    Assertions.assertFalse(products.isEmpty());
+                    Assertions.assertTrue(products.size() <= 5);
+                });
+    }
+
+    @Test
+    void should_reject_an_invalid_cursor() {
+        this.webTestClient.get().uri("/api/v1/products?cursor=no-es-un-cursor")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("El cursor no-es-un-cursor no es válido");
+    }
+
+    @Test
+    void should_stream_all_products_as_ndjson() {
+        WebTestClient.ResponseSpec response = this.webTestClient.get().uri("/api/v1/products")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange();
+
+        response.expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(Product.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    List<Product> products = listEntityExchangeResult.getResponseBody();
+
+                    Assertions.assertNotNull(products);
+                    Assertions.assertFalse(products.isEmpty());
+                });
+    }
+
+    @Test
+    void should_save_products_in_bulk() {
+        Category categoryDB = this.productService.findCategoryByName("Muebles").block();
+        List<Product> products = List.of(new Product("Mesa de centro", 320.00, categoryDB), new Product("", 10.00, categoryDB));
+
+        WebTestClient.ResponseSpec response = this.webTestClient.post()
+                .uri("/api/v1/products/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(products)
+                .exchange();
+
+        response.expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].status").isEqualTo("CREATED")
+                .jsonPath("$[0].id").isNotEmpty()
+                .jsonPath("$[1].status").isEqualTo("INVALID")
+                .jsonPath("$[1].errors").isNotEmpty();
+    }
+
+    @Test
+    void should_keep_the_creation_date_of_products_updated_in_bulk() {
+        Category categoryDB = this.productService.findCategoryByName("Muebles").block();
+        Product product = new Product("Mesa de noche", 150.00, categoryDB);
+        product.setCreateAt(LocalDate.of(2020, 1, 15));
+        Product productDB = this.productService.saveProduct(product).block();
+
+        Product productRequest = new Product("Mesa de noche", 140.00, categoryDB);
+        productRequest.setId(productDB.getId());
+        this.webTestClient.post()
+                .uri("/api/v1/products/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(productRequest))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].status").isEqualTo("UPDATED");
+
+        Product updated = this.productService.findById(productDB.getId()).block();
+        Assertions.assertEquals(140.00, updated.getPrice());
+        Assertions.assertEquals(LocalDate.of(2020, 1, 15), updated.getCreateAt());
+        Assertions.assertEquals(productDB.getVersion() + 1, updated.getVersion());
+
+        this.productService.deleteById(productDB.getId(), null).block();
+    }
+
+    @Test
+    void should_report_as_created_the_bulk_items_with_a_new_id() {
+        Category categoryDB = this.productService.findCategoryByName("Muebles").block();
+        Product productRequest = new Product("Mesa plegable", 90.00, categoryDB);
+        productRequest.setId(new ObjectId().toHexString());
+
+        this.webTestClient.post()
+                .uri("/api/v1/products/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(productRequest))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].status").isEqualTo("CREATED")
+                .jsonPath("$[0].id").isEqualTo(productRequest.getId());
+
+        Product created = this.productService.findById(productRequest.getId()).block();
+        Assertions.assertEquals(90.00, created.getPrice());
+        Assertions.assertEquals(0L, created.getVersion());
+        Assertions.assertEquals(LocalDate.now(), created.getCreateAt());
+
+        this.productService.deleteById(productRequest.getId(), null).block();
+    }
+
+    @Test
+    void should_search_products_by_name_prefix_and_price() {
+        WebTestClient.ResponseSpec response = this.webTestClient.get()
+                .uri("/api/v1/products/search?q=pint&maxPrice=50")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange();
+
+        response.expectStatus().isOk()
+                .expectBodyList(Product.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    List<Product> products = listEntityExchangeResult.getResponseBody();
+
+                    Assertions.assertNotNull(products);
+                    Assertions.assertEquals(1, products.size());
+                    Assertions.assertEquals("Pintura Base", products.get(0).getName());
+                });
+    }
+
+    @Test
+    void should_search_products_ignoring_case_and_accents() {
+        this.webTestClient.get()
+                .uri("/api/v1/products/search?q=COLCHON")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].name").isEqualTo("Colchón Medallón 2 plazas");
+    }
+
+    @Test
+    void should_backfill_the_search_name_of_products_saved_before_prefix_search() {
+        Category categoryDB = this.productService.findCategoryByName("Decoración").block();
+        Document document = new Document("name", "Ánfora de cerámica").append("price", 35.00)
+                .append("category", new Document("_id", new ObjectId(categoryDB.getId())).append("name", categoryDB.getName()))
+                .append("version", 0L);
+        this.reactiveMongoTemplate.insert(document, "products").block();
+        try {
+            this.mongoIndexInitializer.backfillProductSearchNames().block();
+
+            Document backfilled = this.reactiveMongoTemplate.findById(document.getObjectId("_id"), Document.class, "products").block();
+            Assertions.assertEquals("anfora de ceramica", backfilled.getString("searchName"));
+            this.webTestClient.get()
+                    .uri("/api/v1/products/search?q=anfora")
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody()
+                    .jsonPath("$.length()").isEqualTo(1)
+                    .jsonPath("$[0].name").isEqualTo("Ánfora de cerámica");
+        } finally {
+            this.reactiveMongoTemplate.remove(Query.query(Criteria.where("_id").is(document.getObjectId("_id"))), "products").block();
+        }
+    }
+
+    @Test
+    void should_reject_a_search_without_terms() {
+        this.webTestClient.get()
+                .uri("/api/v1/products/search?q= ")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void should_show_product_stats_by_category() {
+        Category categoryDB = this.productService.findCategoryByName("Decoración").block();
+        Product productDB = this.productService.findByName("Interruptor simple").block();
+
+        this.webTestClient.get()
+                .uri("/api/v1/products/stats/categories")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[?(@.categoryId == '%s')].categoryName".formatted(categoryDB.getId())).isEqualTo("Decoración")
+                .jsonPath("$[?(@.categoryId == '%s')].minPrice".formatted(categoryDB.getId())).isEqualTo(productDB.getPrice());
+    }
+
+    @Test
+    void should_show_product_stats_by_month() {
+        this.webTestClient.get()
+                .uri("/api/v1/products/stats/months")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].month").value(month -> Assertions.assertTrue(month.toString().matches("\\d{4}-\\d{2}")))
+                .jsonPath("$[0].count").value(count -> Assertions.assertTrue(((Number) count).longValue() > 0));
+    }
+
+    @Test
+    void should_refresh_category_stats_after_saving_a_product() {
+        Category categoryDB = this.productService.findCategoryByName("Deporte").block();
+        long count = this.productService.findCategoryStats()
+                .filter(stats -> stats.getCategoryId().equals(categoryDB.getId()))
+                .blockFirst()
+                .getCount();
+
+        this.webTestClient.post()
+                .uri("/api/v1/products")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Product("Pelota de fútbol", 45.00, categoryDB))
+                .exchange()
+                .expectStatus().isCreated();
+
+        this.webTestClient.get()
+                .uri("/api/v1/products/stats/categories")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[?(@.categoryId == '%s')].count".formatted(categoryDB.getId())).isEqualTo((int) count + 1);
+    }
+
+    @Test
+    void should_answer_not_modified_while_the_product_does_not_change() {
+        Product productDB = this.productService.findByName("Sony Cámara HD").block();
+
+        String eTag = this.webTestClient.get()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .returnResult(Product.class)
+                .getResponseHeaders()
+                .getETag();
+
+        this.webTestClient.get()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .accept(MediaType.APPLICATION_JSON)
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void should_answer_not_modified_for_an_unchanged_page() {
+        String eTag = this.webTestClient.get().uri("/api/v1/products?size=5")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Product.class)
+                .getResponseHeaders()
+                .getETag();
+
+        Assertions.assertNotNull(eTag);
+        this.webTestClient.get().uri("/api/v1/products?size=5")
+                .accept(MediaType.APPLICATION_JSON)
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isNotModified();
+    }
+
+    @Test
+    void should_give_each_representation_of_a_product_its_own_etag() {
+        Category categoryDB = this.productService.findCategoryByName("Decoración").block();
+        Product productDB = this.productService.saveProduct(new Product("Reloj de pared", 45.00, categoryDB)).block();
+
+        String jsonETag = this.productETag(productDB.getId(), "", MediaType.APPLICATION_JSON);
+        String cborETag = this.productETag(productDB.getId(), "", MediaType.APPLICATION_CBOR);
+        String namesETag = this.productETag(productDB.getId(), "?fields=name", MediaType.APPLICATION_JSON);
+
+        Assertions.assertEquals(3, Set.of(jsonETag, cborETag, namesETag).size());
+        Assertions.assertEquals(jsonETag, this.productETag(productDB.getId(), "", MediaType.APPLICATION_JSON));
+        this.webTestClient.get()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .accept(MediaType.APPLICATION_CBOR)
+                .ifNoneMatch(jsonETag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_CBOR);
+
+        // Cualquier ETag de la versión actual vale como If-Match, sea cual sea su representación
+        this.webTestClient.patch()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .contentType(MediaType.parseMediaType(ProductController.MERGE_PATCH_JSON_VALUE))
+                .header(HttpHeaders.IF_MATCH, cborETag)
+                .bodyValue(Map.of("price", productDB.getPrice()))
+                .exchange()
+                .expectStatus().isOk();
+        this.webTestClient.patch()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .contentType(MediaType.parseMediaType(ProductController.MERGE_PATCH_JSON_VALUE))
+                .header(HttpHeaders.IF_MATCH, namesETag)
+                .bodyValue(Map.of("price", productDB.getPrice()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        this.productService.deleteById(productDB.getId(), null).block();
+    }
+
+    @Test
+    void should_update_a_product_only_if_its_etag_still_matches() {
+        Product productDB = this.productService.findByName("Tv LG 70'").block();
+        Product productRequest = new Product("Tv LG 75'", 3999.90, productDB.getCategory());
+
+        this.webTestClient.put()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "\"%d\"".formatted(productDB.getVersion() + 1))
+                .bodyValue(productRequest)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        String eTag = this.webTestClient.put()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "\"%d\"".formatted(productDB.getVersion()))
+                .bodyValue(productRequest)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("Tv LG 75'")
+                .returnResult()
+                .getResponseHeaders()
+                .getETag();
+
+        Assertions.assertTrue(eTag.startsWith("\"%d-".formatted(productDB.getVersion() + 1)), eTag);
+    }
+
+    @Test
+    void should_patch_only_the_given_fields_of_a_product() {
+        Product productDB = this.productService.findByName("Bicicleta Monteñera").block();
+
+        this.webTestClient.patch()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .contentType(MediaType.parseMediaType(ProductController.MERGE_PATCH_JSON_VALUE))
+                .bodyValue(Map.of("price", 1650.50))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueMatches(HttpHeaders.ETAG, "\"%d-[0-9a-f]{16}\"".formatted(productDB.getVersion() + 1))
+                .expectBody()
+                .jsonPath("$.name").isEqualTo(productDB.getName())
+                .jsonPath("$.price").isEqualTo(1650.50)
+                .jsonPath("$.createAt").isEqualTo(productDB.getCreateAt().toString())
+                .jsonPath("$.category.id").isEqualTo(productDB.getCategory().getId());
+    }
+
+    @Test
+    void should_reject_a_patch_of_a_field_that_cannot_be_modified() {
+        Product productDB = this.productService.findByName("Bicicleta Monteñera").block();
+
+        this.webTestClient.patch()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .contentType(MediaType.parseMediaType(ProductController.MERGE_PATCH_JSON_VALUE))
+                .bodyValue(Map.of("image", "otra-imagen.png"))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void should_reject_bulk_requests_over_the_rate_limit_of_a_client() {
+        // Un producto inválido no llega a escribirse en Mongo
+        List<Product> products = List.of(new Product("", 10.00));
+
+        for (int i = 0; i < 5; i++) {
+            this.webTestClient.post()
+                    .uri("/api/v1/products/bulk")
+                    .header("X-Api-Key", "cliente-insistente")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(products)
+                    .exchange()
+                    .expectStatus().isOk();
+        }
+
+        this.webTestClient.post()
+                .uri("/api/v1/products/bulk")
+                .header("X-Api-Key", "cliente-insistente")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(products)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+                .expectHeader().exists(HttpHeaders.RETRY_AFTER);
+
+        this.webTestClient.post()
+                .uri("/api/v1/products/bulk")
+                .header("X-Api-Key", "otro-cliente")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(products)
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void should_limit_by_ip_the_bulk_requests_with_an_unknown_api_key() {
+        List<Product> products = List.of(new Product("", 10.00));
+        // Otra IP, para no gastar el cubo del resto de las pruebas
+        WebTestClient client = WebTestClient.bindToApplicationContext(this.applicationContext)
+                .webFilter((exchange, chain) -> chain.filter(exchange.mutate()
+                        .request(request -> request.remoteAddress(new InetSocketAddress("203.0.113.10", 40000)))
+                        .build()))
+                .build();
+
+        for (int i = 0; i < 5; i++) {
+            client.post()
+                    .uri("/api/v1/products/bulk")
+                    .header("X-Api-Key", "clave-inventada-%d".formatted(i))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(products)
+                    .exchange()
+                    .expectStatus().isOk();
+        }
+
+        client.post()
+                .uri("/api/v1/products/bulk")
+                .header("X-Api-Key", "clave-inventada-5")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(products)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    @Test
+    void should_show_details_of_a_product_in_smile() {
+        Product productDB = this.productService.findByName("Sillón 3 piezas").block();
+        MediaType smile = MediaType.parseMediaType("application/x-jackson-smile");
+
+        this.webTestClient.get()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .accept(smile)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(smile)
+                .expectHeader().valueEquals(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .expectBody(Product.class)
+                .consumeWith(result -> {
+                    Product product = result.getResponseBody();
+
+                    Assertions.assertNotNull(product);
+                    Assertions.assertEquals(productDB.getId(), product.getId());
+                    Assertions.assertEquals("Sillón 3 piezas", product.getName());
+                    Assertions.assertEquals(productDB.getCreateAt(), product.getCreateAt());
+                });
+    }
+
+    @Test
+    void should_list_products_in_cbor() throws IOException {
+        Product productDB = this.productService.findByName("Colchón Medallón 2 plazas").block();
+
+        byte[] body = this.webTestClient.get().uri("/api/v1/products")
+                .accept(MediaType.APPLICATION_CBOR)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+
+        List<Product> products = new CBORMapper().findAndRegisterModules().readValue(body, new TypeReference<List<Product>>() {
+        });
+        Product product = products.stream()
+                .filter(p -> productDB.getId().equals(p.getId()))
+                .findFirst()
+                .orElseThrow();
+
+        Assertions.assertEquals(productDB.getPrice(), product.getPrice());
+        Assertions.assertEquals(productDB.getCreateAt(), product.getCreateAt());
+        Assertions.assertEquals(productDB.getCategory().getName(), product.getCategory().getName());
+    }
+
+    @Test
+    void should_list_only_the_requested_fields_of_the_products() {
+        this.webTestClient.get()
+                .uri("/api/v1/products?size=2&fields=name,price")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().value(HttpHeaders.LINK, link -> Assertions.assertTrue(link.contains("&fields=id,name,price,version>")))
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].id").isNotEmpty()
+                .jsonPath("$[0].name").isNotEmpty()
+                .jsonPath("$[0].price").isNumber()
+                .jsonPath("$[0].createAt").doesNotExist()
+                .jsonPath("$[0].category").doesNotExist();
+
+        this.webTestClient.get()
+                .uri("/api/v1/products?fields=name,searchName")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void should_omit_null_fields_only_in_projected_responses() throws IOException {
+        Category categoryDB = this.productService.findCategoryByName("Muebles").block();
+        Product productDB = this.productService.saveProduct(new Product("Perchero de pie", 55.00, categoryDB)).block();
+        CBORMapper cborMapper = new CBORMapper();
+
+        // El producto completo mantiene sus nulos; el leído con fields= solo trae lo pedido, venga de Mongo o de la caché
+        this.webTestClient.get()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.image").value(image -> Assertions.assertNull(image))
+                .jsonPath("$.imageVariants").value(imageVariants -> Assertions.assertNull(imageVariants));
+        byte[] fullCbor = this.productBody(productDB.getId(), "", MediaType.APPLICATION_CBOR);
+        Map<String, Object> full = cborMapper.readValue(fullCbor, new TypeReference<>() {
+        });
+        Assertions.assertTrue(full.containsKey("image"));
+
+        for (boolean cached : List.of(true, false)) {
+            if (!cached) {
+                this.productCache.synchronous().invalidate(productDB.getId());
+            }
+            this.webTestClient.get()
+                    .uri("/api/v1/products/{id}?fields=name", Collections.singletonMap("id", productDB.getId()))
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBody()
+                    .jsonPath("$.name").isEqualTo("Perchero de pie")
+                    .jsonPath("$.image").doesNotHaveJsonPath()
+                    .jsonPath("$.price").doesNotHaveJsonPath();
+            Map<String, Object> projected = cborMapper.readValue(this.productBody(productDB.getId(), "?fields=name", MediaType.APPLICATION_CBOR),
+                    new TypeReference<>() {
+                    });
+            Assertions.assertEquals(Set.of("id", "name", "version"), projected.keySet());
+        }
+
+        this.webTestClient.get()
+                .uri("/api/v1/products?fields=name")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].image").doesNotHaveJsonPath();
+        this.webTestClient.get()
+                .uri("/api/v1/products")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].image").hasJsonPath();
+        this.productService.deleteById(productDB.getId(), null).block();
+    }
+
+    @Test
+    void should_share_one_query_between_concurrent_reads_of_the_same_product() {
+        Product productDB = this.productService.findByName("Teclado Micronics").block();
+        this.productCache.synchronous().invalidate(productDB.getId());
+        Set<String> fields = ProductFields.parse("name,price");
+        long findsBefore = this.countProductFinds();
+
+        // Cada lectura se suscribe desde su propio hilo, como las peticiones que llegan a la vez
+        List<Product> products = Flux.range(0, 50)
+                .flatMap(index -> this.productService.findById(productDB.getId(), fields).subscribeOn(Schedulers.boundedElastic()))
+                .collectList()
+                .block();
+
+        Assertions.assertEquals(50, products.size());
+        Assertions.assertTrue(products.stream().allMatch(product -> product.getName().equals("Teclado Micronics")));
+        // Sin la lectura compartida serían 50 consultas; solo se repite si una termina antes de que lleguen las demás
+        long finds = this.countProductFinds() - findsBefore;
+        Assertions.assertTrue(finds >= 1 && finds < 10, () -> "Consultas a Mongo: " + finds);
+    }
+
+    @Test
+    void should_cache_products_by_id_and_count_hits_and_misses() {
+        Product productDB = this.productService.findByName("Pintura Base").block();
+        this.productCache.synchronous().invalidate(productDB.getId());
+        double missesBefore = this.countCacheGets("miss");
+        double hitsBefore = this.countCacheGets("hit");
+        long findsBefore = this.countProductFinds();
+
+        Product first = this.productService.findById(productDB.getId()).block();
+        Product second = this.productService.findById(productDB.getId()).block();
+
+        Assertions.assertEquals("Pintura Base", first.getName());
+        Assertions.assertEquals("Pintura Base", second.getName());
+        Assertions.assertEquals(1, this.countProductFinds() - findsBefore);
+        Assertions.assertEquals(1, this.countCacheGets("miss") - missesBefore);
+        Assertions.assertEquals(1, this.countCacheGets("hit") - hitsBefore);
+        Assertions.assertNotNull(this.productCache.getIfPresent(productDB.getId()));
+    }
+
+    @Test
+    void should_not_share_the_cached_instance_between_readers() {
+        Product productDB = this.productService.findByName("Pintura Satinado").block();
+
+        Product first = this.productService.findById(productDB.getId()).block();
+        first.setImage("sin-guardar.png");
+        first.setImageVariants(null);
+        Product second = this.productService.findById(productDB.getId()).block();
+
+        Assertions.assertNotSame(first, second);
+        Assertions.assertNotEquals("sin-guardar.png", second.getImage());
+    }
+
+    @Test
+    void should_invalidate_the_cached_product_on_save_and_delete() {
+        Category categoryDB = this.productService.findCategoryByName("Decoración").block();
+        Product productDB = this.productService.saveProduct(new Product("Lámpara de pie", 120.00, categoryDB)).block();
+
+        Product cached = this.productService.findById(productDB.getId()).block();
+        Assertions.assertNotNull(this.productCache.getIfPresent(productDB.getId()));
+        cached.setPrice(135.00);
+        this.productService.saveProduct(cached).block();
+        Assertions.assertNull(this.productCache.getIfPresent(productDB.getId()));
+        Assertions.assertEquals(135.00, this.productService.findById(productDB.getId()).block().getPrice());
+
+        this.productService.delete(this.productService.findById(productDB.getId()).block()).block();
+        Assertions.assertNull(this.productCache.getIfPresent(productDB.getId()));
+        Assertions.assertNull(this.productService.findById(productDB.getId()).block());
+    }
+
+    @Test
+    void should_evict_the_cached_product_when_a_save_fails() {
+        Category categoryDB = this.productService.findCategoryByName("Decoración").block();
+        Product productDB = this.productService.saveProduct(new Product("Espejo redondo", 60.00, categoryDB)).block();
+
+        Product stale = this.productService.findById(productDB.getId()).block();
+        stale.setVersion(stale.getVersion() - 1);
+        stale.setImage("sin-guardar.png");
+        Assertions.assertThrows(OptimisticLockingFailureException.class, () -> this.productService.saveProduct(stale).block());
+
+        Assertions.assertNull(this.productCache.getIfPresent(productDB.getId()));
+        Product current = this.productService.findById(productDB.getId()).block();
+        Assertions.assertNull(current.getImage());
+        this.productService.delete(current).block();
+    }
+
+    private byte[] productBody(String id, String query, MediaType mediaType) {
+        return this.webTestClient.get()
+                .uri("/api/v1/products/" + id + query)
+                .accept(mediaType)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    private String productETag(String id, String query, MediaType mediaType) {
+        return this.webTestClient.get()
+                .uri("/api/v1/products/" + id + query)
+                .accept(mediaType)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(mediaType)
+                .returnResult(byte[].class)
+                .getResponseHeaders()
+                .getETag();
+    }
+
+    private double countCacheGets(String result) {
+        return this.meterRegistry.get("cache.gets").tag("cache", "products").tag("result", result)
+                .functionCounter()
+                .count();
+    }
+
+    private long countProductFinds() {
+        return this.meterRegistry.find("mongodb.driver.commands").tag("command", "find").tag("collection", "products")
+                .timers().stream()
+                .mapToLong(Timer::count)
+                .sum();
+    }
+}
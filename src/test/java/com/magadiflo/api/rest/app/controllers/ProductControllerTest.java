@@ -1,24 +1,70 @@
 package com.magadiflo.api.rest.app.controllers;
 
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.decoder.Decoder;
+import com.aayushatharva.brotli4j.decoder.DecoderJNI;
+import com.aayushatharva.brotli4j.decoder.DirectDecompress;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.magadiflo.api.rest.app.models.documents.Category;
 import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.ProductEvent;
 import com.magadiflo.api.rest.app.models.services.IProductService;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.test.StepVerifier;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
+@AutoConfigureObservability
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 class ProductControllerTest {
     @Autowired
     private WebTestClient webTestClient;
     @Autowired
     private IProductService productService;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @LocalServerPort
+    private int port;
+
+    @TempDir
+    static Path uploadsPath;
+
+    @DynamicPropertySource
+    static void uploadsPath(DynamicPropertyRegistry registry) {
+        registry.add("config.uploads.path", () -> uploadsPath.toString() + File.separator);
+    }
 
     @Test
     void should_list_all_products() {
@@ -134,4 +180,322 @@ class ProductControllerTest {
                 .isEmpty();
     }
 
-}
\ No newline at end of file
+    @Test
+    void should_download_the_image_of_a_product() throws IOException {
+        Product productDB = this.productService.findByName("Sony Cámara HD").block();
+        byte[] image = pngImage();
+
+        MultipartBodyBuilder multipartBodyBuilder = new MultipartBodyBuilder();
+        multipartBodyBuilder.part("imageFile", new ByteArrayResource(image) {
+            @Override
+            public String getFilename() {
+                return "camara.png";
+            }
+        }).contentType(MediaType.IMAGE_PNG);
+
+        this.webTestClient.post()
+                .uri("/api/v1/products/upload/{id}", Collections.singletonMap("id", productDB.getId()))
+                .body(BodyInserters.fromMultipartData(multipartBodyBuilder.build()))
+                .exchange()
+                .expectStatus().isOk();
+
+        String eTag = this.webTestClient.get()
+                .uri("/api/v1/products/{id}/image", Collections.singletonMap("id", productDB.getId()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.IMAGE_PNG)
+                .expectHeader().exists(HttpHeaders.CACHE_CONTROL)
+                .expectBody(byte[].class).isEqualTo(image)
+                .returnResult()
+                .getResponseHeaders()
+                .getETag();
+
+        Assertions.assertNotNull(eTag);
+
+        this.webTestClient.get()
+                .uri("/api/v1/products/{id}/image", Collections.singletonMap("id", productDB.getId()))
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isNotModified();
+
+        this.webTestClient.get()
+                .uri("/api/v1/products/{id}/image", Collections.singletonMap("id", productDB.getId()))
+                .header(HttpHeaders.RANGE, "bytes=0-3")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+                .expectBody(byte[].class).isEqualTo(Arrays.copyOfRange(image, 0, 4));
+    }
+
+    private static byte[] pngImage() throws IOException {
+        BufferedImage bufferedImage = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(bufferedImage, "png", outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    void should_store_a_repeated_image_only_once() throws IOException {
+        Product tv = this.productService.findByName("Tv LG 70'").block();
+        Product monitor = this.productService.findByName("Monitor 27' LG").block();
+        byte[] image = pngImage();
+
+        Product tvWithImage = this.uploadImage(tv.getId(), image, MediaType.IMAGE_PNG)
+                .expectStatus().isOk()
+                .expectBody(Product.class).returnResult().getResponseBody();
+        Product monitorWithImage = this.uploadImage(monitor.getId(), image, MediaType.IMAGE_PNG)
+                .expectStatus().isOk()
+                .expectBody(Product.class).returnResult().getResponseBody();
+
+        Assertions.assertNotNull(tvWithImage);
+        Assertions.assertNotNull(monitorWithImage);
+        Assertions.assertEquals(tvWithImage.getImage(), monitorWithImage.getImage());
+        // Las variantes (.jpg/.webp) se generan aparte; del original solo debe haber un fichero
+        Assertions.assertEquals(1, uploadsPath.toFile().listFiles((dir, name) -> name.endsWith(".png")).length);
+    }
+
+    @Test
+    void should_serve_a_resized_variant_of_the_image() throws IOException {
+        Product productDB = this.productService.findByName("Pintura Satinado").block();
+        BufferedImage bufferedImage = new BufferedImage(600, 400, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(bufferedImage, "png", outputStream);
+
+        this.uploadImage(productDB.getId(), outputStream.toByteArray(), MediaType.IMAGE_PNG)
+                .expectStatus().isOk();
+
+        // Las variantes se generan en segundo plano
+        Product productWithVariants = Mono.defer(() -> this.productService.findById(productDB.getId()))
+                .filter(product -> product.getImageVariants() != null)
+                .repeatWhenEmpty(repeat -> repeat.delayElements(Duration.ofMillis(100)).take(50))
+                .block();
+
+        Assertions.assertNotNull(productWithVariants);
+        Assertions.assertTrue(productWithVariants.getImageVariants().containsKey("128-jpeg"));
+
+        byte[] thumbnail = this.webTestClient.get()
+                .uri("/api/v1/products/{id}/image?size=100", Collections.singletonMap("id", productDB.getId()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.IMAGE_JPEG)
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+
+        BufferedImage thumbnailImage = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        Assertions.assertEquals(128, thumbnailImage.getWidth());
+        Assertions.assertEquals(85, thumbnailImage.getHeight());
+
+        this.webTestClient.get()
+                .uri("/api/v1/products/{id}/image?size=1024", Collections.singletonMap("id", productDB.getId()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.IMAGE_PNG);
+    }
+
+    @Test
+    void should_reject_an_upload_that_is_not_an_image() {
+        Product productDB = this.productService.findByName("Teclado Micronics").block();
+
+        this.uploadImage(productDB.getId(), "no soy una imagen".getBytes(), MediaType.TEXT_PLAIN)
+                .expectStatus().isEqualTo(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+    }
+
+    private WebTestClient.ResponseSpec uploadImage(String id, byte[] content, MediaType mediaType) {
+        MultipartBodyBuilder multipartBodyBuilder = new MultipartBodyBuilder();
+        multipartBodyBuilder.part("imageFile", new ByteArrayResource(content) {
+            @Override
+            public String getFilename() {
+                return "imagen";
+            }
+        }).contentType(mediaType);
+
+        return this.webTestClient.post()
+                .uri("/api/v1/products/upload/{id}", Collections.singletonMap("id", id))
+                .body(BodyInserters.fromMultipartData(multipartBodyBuilder.build()))
+                .exchange();
+    }
+
+    // Solo los eventos con datos y, si se indica, los de ese producto
+    private Flux<ServerSentEvent<ProductEvent>> productFeed(String productId, String lastEventId) {
+        return this.webTestClient.get()
+                .uri("/api/v1/products/feed")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .headers(headers -> {
+                    if (lastEventId != null) {
+                        headers.set("Last-Event-ID", lastEventId);
+                    }
+                })
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ProductEvent>>() {
+                })
+                .getResponseBody()
+                .filter(event -> event.data() != null)
+                .filter(event -> productId == null || productId.equals(event.data().getProductId()));
+    }
+
+    private void savePrice(Product product, double price) {
+        product.setPrice(price);
+        this.productService.saveProduct(product).block();
+    }
+
+    @Test
+    void should_expose_latency_metrics_for_prometheus() {
+        Product productDB = this.productService.findByName("Silla de oficina").block();
+
+        this.webTestClient.get()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .exchange()
+                .expectStatus().isOk();
+
+        this.webTestClient.mutate()
+                .codecs(clientCodecConfigurer -> clientCodecConfigurer.defaultCodecs().maxInMemorySize(4 * 1024 * 1024))
+                .build()
+                .get()
+                .uri("/actuator/prometheus")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class)
+                .value(metrics -> {
+                    Assertions.assertTrue(metrics.contains("http_server_requests_seconds_bucket{"));
+                    Assertions.assertTrue(metrics.contains("uri=\"/api/v1/products/{id}\""));
+                    Assertions.assertTrue(metrics.contains("product_service_flow_duration_seconds_bucket{"));
+                    Assertions.assertTrue(metrics.contains("method=\"findById\""));
+                    Assertions.assertTrue(metrics.contains("mongodb_driver_commands_seconds"));
+                    Assertions.assertTrue(metrics.contains("reactor_netty_http_server_connections_active"));
+                });
+    }
+
+    @Test
+    void should_push_price_changes_to_the_live_feed() {
+        Product productDB = this.productService.findByName("Armario 2 puertas").block();
+
+        Flux<ServerSentEvent<ProductEvent>> feed = this.webTestClient.get()
+                .uri("/api/v1/products/feed?category={category}&fields=price", productDB.getCategory().getId())
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ProductEvent>>() {
+                })
+                .getResponseBody();
+
+        StepVerifier.create(feed.filter(event -> event.data() != null))
+                .thenAwait(Duration.ofSeconds(1))
+                .then(() -> {
+                    productDB.setPrice(950.00);
+                    this.productService.saveProduct(productDB).block();
+                })
+                .assertNext(event -> {
+                    Assertions.assertNotNull(event.id());
+                    Assertions.assertEquals(productDB.getId(), event.data().getProductId());
+                    Assertions.assertEquals(950.00, event.data().getProduct().getPrice());
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void should_reject_a_malformed_last_event_id() {
+        this.webTestClient.get()
+                .uri("/api/v1/products/feed")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .header("Last-Event-ID", "no-es-un-token")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void should_resume_the_live_feed_from_the_last_event_id() {
+        Category categoryDB = this.productService.findCategoryByName("Muebles").block();
+        Product productDB = this.productService.saveProduct(new Product("Cómoda 4 cajones", 400.00, categoryDB)).block();
+        AtomicReference<String> lastEventId = new AtomicReference<>();
+
+        StepVerifier.create(this.productFeed(productDB.getId(), null))
+                .thenAwait(Duration.ofSeconds(1))
+                .then(() -> this.savePrice(productDB, 410.00))
+                .consumeNextWith(event -> lastEventId.set(event.id()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+
+        // Mientras el cliente está desconectado
+        this.savePrice(productDB, 420.00);
+
+        // El cambio perdido llega por el stream propio; los siguientes, una sola vez, por el compartido
+        StepVerifier.create(this.productFeed(productDB.getId(), lastEventId.get()).map(event -> event.data().getProduct().getPrice()))
+                .expectNext(420.00)
+                .then(() -> this.savePrice(productDB, 430.00))
+                .expectNext(430.00)
+                .then(() -> this.savePrice(productDB, 440.00))
+                .expectNext(440.00)
+                .then(() -> this.savePrice(productDB, 450.00))
+                .expectNext(450.00)
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+
+        this.productService.deleteById(productDB.getId(), null).block();
+    }
+
+    @Test
+    void should_send_a_reset_event_when_the_last_event_id_cannot_be_resumed() {
+        Category categoryDB = this.productService.findCategoryByName("Muebles").block();
+        Product productDB = this.productService.saveProduct(new Product("Cómoda 5 cajones", 500.00, categoryDB)).block();
+
+        // Un token bien formado que Mongo no puede reanudar: el cliente recibe un reset y sigue con el feed en vivo
+        StepVerifier.create(this.productFeed(null, "82" + "0".repeat(38)))
+                .assertNext(event -> {
+                    Assertions.assertEquals("reset", event.event());
+                    Assertions.assertEquals("", event.id());
+                })
+                .then(() -> this.savePrice(productDB, 510.00))
+                .assertNext(event -> Assertions.assertEquals(productDB.getId(), event.data().getProductId()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+
+        this.productService.deleteById(productDB.getId(), null).block();
+    }
+
+    @Test
+    void should_compress_the_list_of_products_for_clients_that_accept_it() throws IOException {
+        // Cliente sin descompresión automática para ver la respuesta tal como sale del servidor
+        WebTestClient rawClient = WebTestClient.bindToServer(new ReactorClientHttpConnector(HttpClient.create()))
+                .baseUrl("http://localhost:" + this.port)
+                .build();
+
+        byte[] body = rawClient.get().uri("/api/v1/products")
+                .accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+
+        // Número mágico de gzip
+        Assertions.assertNotNull(body);
+        Assertions.assertEquals((byte) 0x1f, body[0]);
+        Assertions.assertEquals((byte) 0x8b, body[1]);
+
+        byte[] brBody = rawClient.get().uri("/api/v1/products")
+                .accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.ACCEPT_ENCODING, "br")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_ENCODING, "br")
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+        byte[] jsonBody = rawClient.get().uri("/api/v1/products")
+                .accept(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(HttpHeaders.CONTENT_ENCODING)
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+
+        // La respuesta br tiene que descomprimirse completa en la misma lista de productos
+        Brotli4jLoader.ensureAvailability();
+        DirectDecompress decompressed = Decoder.decompress(brBody);
+        Assertions.assertEquals(DecoderJNI.Status.DONE, decompressed.getResultStatus());
+        Assertions.assertEquals(this.objectMapper.readTree(jsonBody), this.objectMapper.readTree(decompressed.getDecompressedData()));
+    }
+}
@@ -1,25 +1,70 @@
 package com.magadiflo.api.rest.app.handlers.config;
 
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnknownFieldSet;
+import com.magadiflo.api.rest.app.config.ProductProtobufEncoder;
 import com.magadiflo.api.rest.app.models.documents.Category;
 import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.dto.ProductEvent;
+import com.magadiflo.api.rest.app.models.dto.ProductPage;
 import com.magadiflo.api.rest.app.models.services.IProductService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
-
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "config.rate-limit.api-keys=cliente-insistente,otro-cliente,cliente-lento-1,cliente-lento-2,cliente-lento-3")
 class RouterFunctionConfigTest {
     @Autowired
     private WebTestClient webTestClient;
     @Autowired
     private IProductService productService;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @LocalServerPort
+    private int port;
+
+    @TempDir
+    static Path uploadsPath;
+
+    @DynamicPropertySource
+    static void uploadsPath(DynamicPropertyRegistry registry) {
+        registry.add("config.uploads.path", () -> uploadsPath.toString() + File.separator);
+    }
 
     @Test
     void should_list_all_products() {
@@ -134,4 +179,431 @@ class RouterFunctionConfigTest {
                 .expectBody()
                 .isEmpty();
     }
-}
\ No newline at end of file
+
+    @Test
+    void should_list_products_by_pages_using_a_cursor() {
+        WebTestClient.ResponseSpec firstPage = this.webTestClient.get().uri("/api/v2/products?size=5")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange();
+
+        String nextCursor = firstPage.expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.LINK)
+                .expectHeader().exists(ProductPage.NEXT_CURSOR_HEADER)
+                .expectBodyList(Product.class)
+                .hasSize(5)
+                .returnResult()
+                .getResponseHeaders()
+                .getFirst(ProductPage.NEXT_CURSOR_HEADER);
+
+        WebTestClient.ResponseSpec secondPage = this.webTestClient.get().uri("/api/v2/products?size=5&cursor={cursor}", nextCursor)
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange();
+
+        secondPage.expectStatus().isOk()
+                .expectBodyList(Product.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    List<Product> products = listEntityExchangeResult.getResponseBody();
+
+                    Assertions.assertNotNull(products);
+                    Assertions.assertFalse(products.isEmpty());
+                    Assertions.assertTrue(products.size() <= 5);
+                });
+    }
+
+    @Test
+    void should_reject_an_invalid_cursor() {
+        this.webTestClient.get().uri("/api/v2/products?cursor=no-es-un-cursor")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("El cursor no-es-un-cursor no es válido");
+    }
+
+    @Test
+    void should_reject_an_invalid_page_size() {
+        this.webTestClient.get().uri("/api/v2/products?size=muchos")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void should_stream_all_products_as_ndjson() {
+        WebTestClient.ResponseSpec response = this.webTestClient.get().uri("/api/v2/products")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange();
+
+        response.expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBodyList(Product.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    List<Product> products = listEntityExchangeResult.getResponseBody();
+
+                    Assertions.assertNotNull(products);
+                    Assertions.assertFalse(products.isEmpty());
+                });
+    }
+
+    @Test
+    void should_save_products_in_bulk() {
+        Category categoryDB = this.productService.findCategoryByName("Muebles").block();
+        List<Product> products = List.of(new Product("Mesa de centro", 320.00, categoryDB), new Product("", 10.00, categoryDB));
+
+        WebTestClient.ResponseSpec response = this.webTestClient.post()
+                .uri("/api/v2/products/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(products)
+                .exchange();
+
+        response.expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].status").isEqualTo("CREATED")
+                .jsonPath("$[0].id").isNotEmpty()
+                .jsonPath("$[1].status").isEqualTo("INVALID")
+                .jsonPath("$[1].errors").isNotEmpty();
+    }
+
+    @Test
+    void should_download_the_image_of_a_product() throws IOException {
+        Product productDB = this.productService.findByName("Sony Cámara HD").block();
+        byte[] image = pngImage();
+
+        MultipartBodyBuilder multipartBodyBuilder = new MultipartBodyBuilder();
+        multipartBodyBuilder.part("imageFile", new ByteArrayResource(image) {
+            @Override
+            public String getFilename() {
+                return "camara.png";
+            }
+        }).contentType(MediaType.IMAGE_PNG);
+
+        this.webTestClient.post()
+                .uri("/api/v2/products/upload/{id}", Collections.singletonMap("id", productDB.getId()))
+                .body(BodyInserters.fromMultipartData(multipartBodyBuilder.build()))
+                .exchange()
+                .expectStatus().isOk();
+
+        String eTag = this.webTestClient.get()
+                .uri("/api/v2/products/{id}/image", Collections.singletonMap("id", productDB.getId()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.IMAGE_PNG)
+                .expectHeader().exists(HttpHeaders.CACHE_CONTROL)
+                .expectBody(byte[].class).isEqualTo(image)
+                .returnResult()
+                .getResponseHeaders()
+                .getETag();
+
+        Assertions.assertNotNull(eTag);
+
+        this.webTestClient.get()
+                .uri("/api/v2/products/{id}/image", Collections.singletonMap("id", productDB.getId()))
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isNotModified();
+
+        this.webTestClient.get()
+                .uri("/api/v2/products/{id}/image", Collections.singletonMap("id", productDB.getId()))
+                .header(HttpHeaders.RANGE, "bytes=0-3")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+                .expectBody(byte[].class).isEqualTo(Arrays.copyOfRange(image, 0, 4));
+    }
+
+    private static byte[] pngImage() throws IOException {
+        BufferedImage bufferedImage = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(bufferedImage, "png", outputStream);
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    void should_search_products_by_name_prefix_and_price() {
+        WebTestClient.ResponseSpec response = this.webTestClient.get()
+                .uri("/api/v2/products/search?q=pint&maxPrice=50")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange();
+
+        response.expectStatus().isOk()
+                .expectBodyList(Product.class)
+                .consumeWith(listEntityExchangeResult -> {
+                    List<Product> products = listEntityExchangeResult.getResponseBody();
+
+                    Assertions.assertNotNull(products);
+                    Assertions.assertEquals(1, products.size());
+                    Assertions.assertEquals("Pintura Base", products.get(0).getName());
+                });
+    }
+
+    @Test
+    void should_search_products_ignoring_case_and_accents() {
+        this.webTestClient.get()
+                .uri("/api/v2/products/search?q=COLCHON")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].name").isEqualTo("Colchón Medallón 2 plazas");
+    }
+
+    @Test
+    void should_reject_a_search_without_terms() {
+        this.webTestClient.get()
+                .uri("/api/v2/products/search?q= ")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void should_show_product_stats_by_category() {
+        Category categoryDB = this.productService.findCategoryByName("Decoración").block();
+        Product productDB = this.productService.findByName("Interruptor simple").block();
+
+        this.webTestClient.get()
+                .uri("/api/v2/products/stats/categories")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[?(@.categoryId == '%s')].categoryName".formatted(categoryDB.getId())).isEqualTo("Decoración")
+                .jsonPath("$[?(@.categoryId == '%s')].minPrice".formatted(categoryDB.getId())).isEqualTo(productDB.getPrice());
+    }
+
+    @Test
+    void should_show_product_stats_by_month() {
+        this.webTestClient.get()
+                .uri("/api/v2/products/stats/months")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].month").value(month -> Assertions.assertTrue(month.toString().matches("\\d{4}-\\d{2}")))
+                .jsonPath("$[0].count").value(count -> Assertions.assertTrue(((Number) count).longValue() > 0));
+    }
+
+    @Test
+    void should_push_only_changes_of_the_requested_category_to_the_live_feed() {
+        Product otherCategoryDB = this.productService.findByName("Teclado Micronics").block();
+        Product productDB = this.productService.findByName("Bicicleta Monteñera").block();
+
+        Flux<ServerSentEvent<ProductEvent>> feed = this.webTestClient.get()
+                .uri("/api/v2/products/feed?category={category}", productDB.getCategory().getId())
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ProductEvent>>() {
+                })
+                .getResponseBody();
+
+        StepVerifier.create(feed.filter(event -> event.data() != null))
+                .thenAwait(Duration.ofSeconds(1))
+                .then(() -> {
+                    otherCategoryDB.setPrice(19.00);
+                    productDB.setPrice(1750.00);
+                    this.productService.saveProduct(otherCategoryDB)
+                            .then(this.productService.saveProduct(productDB))
+                            .block();
+                })
+                .assertNext(event -> {
+                    Assertions.assertNotNull(event.id());
+                    Assertions.assertEquals(productDB.getId(), event.data().getProductId());
+                    Assertions.assertEquals(1750.00, event.data().getProduct().getPrice());
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void should_answer_not_modified_while_the_product_does_not_change() {
+        Product productDB = this.productService.findByName("Sony Cámara HD").block();
+
+        String eTag = this.webTestClient.get()
+                .uri("/api/v2/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .returnResult(Product.class)
+                .getResponseHeaders()
+                .getETag();
+
+        this.webTestClient.get()
+                .uri("/api/v2/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .accept(MediaType.APPLICATION_JSON)
+                .ifNoneMatch(eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void should_not_delete_a_product_with_a_stale_etag() {
+        Product productDB = this.productService.findByName("Monitor 27' LG").block();
+
+        this.webTestClient.delete()
+                .uri("/api/v2/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .header(HttpHeaders.IF_MATCH, "\"%d\"".formatted(productDB.getVersion() + 1))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        this.webTestClient.get()
+                .uri("/api/v2/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void should_patch_the_name_of_a_product() {
+        Product productDB = this.productService.findByName("Separador para TV").block();
+
+        this.webTestClient.patch()
+                .uri("/api/v2/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .contentType(MediaType.parseMediaType("application/merge-patch+json"))
+                .header(HttpHeaders.IF_MATCH, "\"%d\"".formatted(productDB.getVersion()))
+                .bodyValue(Map.of("name", "Separador de ambientes"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("Separador de ambientes")
+                .jsonPath("$.price").isEqualTo(productDB.getPrice());
+
+        this.webTestClient.get()
+                .uri("/api/v2/products/search?q=separador")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].name").isEqualTo("Separador de ambientes");
+    }
+
+    @Test
+    void should_reject_bulk_requests_over_the_rate_limit_of_a_client() {
+        // Un producto inválido no llega a escribirse en Mongo
+        List<Product> products = List.of(new Product("", 10.00));
+
+        for (int i = 0; i < 5; i++) {
+            this.webTestClient.post()
+                    .uri("/api/v2/products/bulk")
+                    .header("X-Api-Key", "cliente-insistente")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(products)
+                    .exchange()
+                    .expectStatus().isOk();
+        }
+
+        this.webTestClient.post()
+                .uri("/api/v2/products/bulk")
+                .header("X-Api-Key", "cliente-insistente")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(products)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+                .expectHeader().exists(HttpHeaders.RETRY_AFTER);
+
+        this.webTestClient.post()
+                .uri("/api/v2/products/bulk")
+                .header("X-Api-Key", "otro-cliente")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(products)
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void should_hold_the_bulk_permit_until_the_streamed_response_is_written() throws Exception {
+        // Mientras el cuerpo de la petición siga abierto el Flux de resultados no termina de escribirse
+        Sinks.Many<Product> firstBody = Sinks.many().unicast().onBackpressureBuffer();
+        Sinks.Many<Product> secondBody = Sinks.many().unicast().onBackpressureBuffer();
+        CompletableFuture<List<Map<String, Object>>> firstResults = this.streamBulk("cliente-lento-1", firstBody);
+        CompletableFuture<List<Map<String, Object>>> secondResults = this.streamBulk("cliente-lento-2", secondBody);
+
+        for (int attempt = 0; attempt < 50 && this.bulkInFlight() < 2; attempt++) {
+            Thread.sleep(100);
+        }
+        Assertions.assertEquals(2, this.bulkInFlight());
+        this.webTestClient.post()
+                .uri("/api/v2/products/bulk")
+                .header("X-Api-Key", "cliente-lento-3")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(new Product("", 10.00)))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+
+        firstBody.tryEmitComplete();
+        secondBody.tryEmitComplete();
+        Assertions.assertEquals(1, firstResults.get(10, TimeUnit.SECONDS).size());
+        Assertions.assertEquals(1, secondResults.get(10, TimeUnit.SECONDS).size());
+        for (int attempt = 0; attempt < 50 && this.bulkInFlight() > 0; attempt++) {
+            Thread.sleep(100);
+        }
+        Assertions.assertEquals(0, this.bulkInFlight());
+    }
+
+    @Test
+    void should_show_details_of_a_product_in_protobuf() throws InvalidProtocolBufferException {
+        Product productDB = this.productService.findByName("Pintura Base").block();
+
+        byte[] body = this.webTestClient.get()
+                .uri("/api/v2/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .accept(ProductProtobufEncoder.APPLICATION_PROTOBUF)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(ProductProtobufEncoder.APPLICATION_PROTOBUF)
+                .expectHeader().valueEquals(ProductProtobufEncoder.MESSAGE_HEADER, "magadiflo.products.Product")
+                .expectBody(byte[].class)
+                .returnResult().getResponseBody();
+
+        // Sin clases generadas: los campos se leen por su número en static/proto/product.proto
+        UnknownFieldSet product = UnknownFieldSet.parseFrom(body);
+        UnknownFieldSet category = UnknownFieldSet.parseFrom(product.getField(7).getLengthDelimitedList().get(0));
+
+        Assertions.assertEquals(productDB.getId(), product.getField(1).getLengthDelimitedList().get(0).toStringUtf8());
+        Assertions.assertEquals("Pintura Base", product.getField(2).getLengthDelimitedList().get(0).toStringUtf8());
+        Assertions.assertEquals(productDB.getPrice(), Double.longBitsToDouble(product.getField(3).getFixed64List().get(0)));
+        Assertions.assertEquals(productDB.getCategory().getName(), category.getField(2).getLengthDelimitedList().get(0).toStringUtf8());
+    }
+
+    @Test
+    void should_show_only_the_requested_fields_of_a_product() {
+        Product productDB = this.productService.findByName("Interruptor simple").block();
+
+        this.webTestClient.get()
+                .uri("/api/v2/products/{id}?fields=name", Collections.singletonMap("id", productDB.getId()))
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.id").isEqualTo(productDB.getId())
+                .jsonPath("$.name").isEqualTo("Interruptor simple")
+                .jsonPath("$.price").doesNotExist()
+                .jsonPath("$.category").doesNotExist();
+
+        this.webTestClient.get()
+                .uri("/api/v2/products/{id}?fields=name", Collections.singletonMap("id", productDB.getId()))
+                .accept(ProductProtobufEncoder.APPLICATION_PROTOBUF)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(ProductProtobufEncoder.MESSAGE_HEADER, "magadiflo.products.Product");
+    }
+
+    private CompletableFuture<List<Map<String, Object>>> streamBulk(String apiKey, Sinks.Many<Product> body) {
+        // Un producto inválido no llega a escribirse en Mongo
+        body.tryEmitNext(new Product("", 10.00));
+        return WebClient.create("http://localhost:" + this.port).post()
+                .uri("/api/v2/products/bulk")
+                .header("X-Api-Key", apiKey)
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .body(body.asFlux(), Product.class)
+                .retrieve()
+                .bodyToFlux(new ParameterizedTypeReference<Map<String, Object>>() {
+                })
+                .collectList()
+                .toFuture();
+    }
+
+    private double bulkInFlight() {
+        Gauge inFlight = this.meterRegistry.find("rate.limit.in.flight").tag("route", "/api/v2/products/bulk").gauge();
+        return inFlight == null ? 0 : inFlight.value();
+    }
+}
@@ -0,0 +1,292 @@
+package com.magadiflo.api.rest.app.load;
+
+import com.magadiflo.api.rest.app.models.documents.Category;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Genera tráfico contra /api/v1/products o /api/v2/products con una mezcla de listados, detalles, altas,
+ * modificaciones y subidas de imágenes. Es un modelo cerrado: cada usuario virtual lanza la siguiente petición
+ * al terminar la anterior. Las latencias de la fase de medida (después del calentamiento) se guardan en un
+ * HdrHistogram por operación.
+ */
+class ProductLoadGenerator {
+
+    enum Operation {
+        LIST, DETAIL, CREATE, UPDATE, UPLOAD
+    }
+
+    /**
+     * Se lee de las propiedades de sistema load.warmup, load.duration, load.concurrency y
+     * load.mix (p. ej. list:40,detail:40,create:10,update:8,upload:2).
+     */
+    record Settings(Duration warmup, Duration duration, int concurrency, Map<Operation, Integer> mix) {
+
+        static Settings fromSystemProperties() {
+            Map<Operation, Integer> mix = Arrays.stream(System.getProperty("load.mix", "list:40,detail:40,create:10,update:8,upload:2").split(","))
+                    .map(entry -> entry.trim().split(":"))
+                    .collect(Collectors.toMap(entry -> Operation.valueOf(entry[0].toUpperCase()), entry -> Integer.valueOf(entry[1]),
+                            Integer::sum, () -> new EnumMap<>(Operation.class)));
+            return new Settings(DurationStyle.detectAndParse(System.getProperty("load.warmup", "5s")),
+                    DurationStyle.detectAndParse(System.getProperty("load.duration", "20s")),
+                    Integer.getInteger("load.concurrency", 32),
+                    mix);
+        }
+    }
+
+    record Report(String basePath, Settings settings, Map<Operation, Histogram> latencies, Map<Operation, Long> errors,
+                  Map<Operation, String> lastErrors) {
+
+        long totalErrors() {
+            return this.errors.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        long totalRequests() {
+            return this.latencies.values().stream().mapToLong(Histogram::getTotalCount).sum() + this.totalErrors();
+        }
+
+        double throughput() {
+            return this.totalRequests() / (this.settings.duration().toNanos() / 1_000_000_000.0);
+        }
+
+        void log(Logger logger) {
+            StringBuilder table = new StringBuilder("%n%s: %d peticiones, %.1f peticiones/s, %d errores, %d usuarios%n".formatted(
+                    this.basePath, this.totalRequests(), this.throughput(), this.totalErrors(), this.settings.concurrency()));
+            table.append("%-8s %9s %8s %10s %10s %10s %10s %10s%n".formatted("op", "n", "errores", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+            this.latencies.forEach((operation, histogram) -> table.append("%-8s %9d %8d %10.2f %10.2f %10.2f %10.2f %10.2f%n".formatted(
+                    operation, histogram.getTotalCount(), this.errors.get(operation),
+                    millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+                    histogram.getMaxValue() / 1000.0)));
+            this.lastErrors.forEach((operation, error) -> table.append("último error de %s: %s%n".formatted(operation, error)));
+            logger.info(table.toString());
+        }
+
+        double p99Millis(Operation operation) {
+            return millis(this.latencies.get(operation), 99);
+        }
+
+        /**
+         * Un fichero .hgrm por operación (en microsegundos), el formato que leen las herramientas de HdrHistogram
+         * para comparar distribuciones entre /api/v1 y /api/v2 o entre dos versiones.
+         */
+        void writeHistograms(Path directory) throws IOException {
+            Files.createDirectories(directory);
+            String prefix = this.basePath.replaceAll("^/api/|/products$", "");
+            for (Map.Entry<Operation, Histogram> entry : this.latencies.entrySet()) {
+                Path file = directory.resolve("%s-%s.hgrm".formatted(prefix, entry.getKey().name().toLowerCase()));
+                try (PrintStream printStream = new PrintStream(Files.newOutputStream(file))) {
+                    entry.getValue().outputPercentileDistribution(printStream, 1000.0);
+                }
+            }
+        }
+
+        private static double millis(Histogram histogram, double percentile) {
+            return histogram.getValueAtPercentile(percentile) / 1000.0;
+        }
+    }
+
+    private final static Logger LOG = LoggerFactory.getLogger(ProductLoadGenerator.class);
+    private final static int KNOWN_IDS = 10_000;
+
+    private final String basePath;
+    private final Settings settings;
+    private final ConnectionProvider connectionProvider;
+    private final WebClient webClient;
+    private final byte[] image;
+    private final Operation[] operations;
+
+    private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicReference<String>> lastErrors = new EnumMap<>(Operation.class);
+    // Los ids sobre los que se hacen detalles, modificaciones y subidas; las altas reemplazan a los más antiguos
+    private final AtomicReferenceArray<String> productIds = new AtomicReferenceArray<>(KNOWN_IDS);
+    private final AtomicInteger productIdCount = new AtomicInteger();
+    private Category category;
+    private volatile long measureStart;
+
+    ProductLoadGenerator(String baseUrl, String basePath, Settings settings) {
+        this.basePath = basePath;
+        this.settings = settings;
+        // Con el pool por defecto las peticiones que esperan conexión fallan al superar el doble de conexiones
+        this.connectionProvider = ConnectionProvider.builder("load")
+                .maxConnections(settings.concurrency())
+                .pendingAcquireMaxCount(-1)
+                .build();
+        this.webClient = WebClient.builder()
+                .baseUrl(baseUrl)
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(this.connectionProvider)))
+                .build();
+        this.image = pngImage();
+        // Una entrada por unidad de peso: elegir la operación es un acceso aleatorio al array
+        this.operations = settings.mix().entrySet().stream()
+                .flatMap(entry -> Stream.generate(entry::getKey).limit(entry.getValue()))
+                .toArray(Operation[]::new);
+        for (Operation operation : settings.mix().keySet()) {
+            this.latencies.put(operation, new ConcurrentHistogram(3));
+            this.errors.put(operation, new LongAdder());
+            this.lastErrors.put(operation, new AtomicReference<>());
+        }
+    }
+
+    Report run() {
+        try {
+            this.loadProductIds();
+            long start = System.nanoTime();
+            this.measureStart = start + this.settings.warmup().toNanos();
+            long end = this.measureStart + this.settings.duration().toNanos();
+            LOG.info("Carga sobre {}: {} usuarios, calentamiento {}, medida {}, mezcla {}",
+                    this.basePath, this.settings.concurrency(), this.settings.warmup(), this.settings.duration(), this.settings.mix());
+
+            Flux.range(0, this.settings.concurrency())
+                    .flatMap(user -> Mono.defer(() -> this.execute(this.operations[ThreadLocalRandom.current().nextInt(this.operations.length)]))
+                            .repeat(() -> System.nanoTime() < end), this.settings.concurrency())
+                    .blockLast();
+
+            Map<Operation, Long> errorCounts = new EnumMap<>(Operation.class);
+            this.errors.forEach((operation, count) -> errorCounts.put(operation, count.sum()));
+            Map<Operation, String> lastErrorMessages = new EnumMap<>(Operation.class);
+            this.lastErrors.forEach((operation, error) -> {
+                if (error.get() != null) {
+                    lastErrorMessages.put(operation, error.get());
+                }
+            });
+            return new Report(this.basePath, this.settings, this.latencies, errorCounts, lastErrorMessages);
+        } finally {
+            this.connectionProvider.dispose();
+        }
+    }
+
+    private void loadProductIds() {
+        List<Product> products = this.webClient.get()
+                .uri(this.basePath + "?size=500")
+                .accept(MediaType.APPLICATION_JSON)
+                .retrieve()
+                .bodyToFlux(Product.class)
+                .collectList()
+                .block();
+        if (products == null || products.isEmpty()) {
+            throw new IllegalStateException("No hay productos para generar carga; revisa config.seed.*");
+        }
+        products.forEach(product -> this.addProductId(product.getId()));
+        this.category = products.get(0).getCategory();
+    }
+
+    private Mono<Void> execute(Operation operation) {
+        long startTime = System.nanoTime();
+        return this.request(operation)
+                .then(Mono.fromRunnable(() -> this.record(operation, startTime, null)))
+                .onErrorResume(e -> Mono.fromRunnable(() -> this.record(operation, startTime, e)))
+                .then();
+    }
+
+    private Mono<?> request(Operation operation) {
+        return switch (operation) {
+            case LIST -> this.webClient.get().uri(this.basePath)
+                    .accept(MediaType.APPLICATION_JSON)
+                    .retrieve()
+                    .toBodilessEntity();
+            case DETAIL -> this.webClient.get().uri(this.basePath + "/{id}", this.randomProductId())
+                    .accept(MediaType.APPLICATION_JSON)
+                    .retrieve()
+                    .toBodilessEntity();
+            case CREATE -> this.webClient.post().uri(this.basePath)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(this.randomProduct())
+                    .retrieve()
+                    .bodyToMono(Product.class)
+                    .doOnNext(product -> this.addProductId(product.getId()));
+            case UPDATE -> this.webClient.put().uri(this.basePath + "/{id}", this.randomProductId())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(this.randomProduct())
+                    .retrieve()
+                    .toBodilessEntity();
+            case UPLOAD -> {
+                MultipartBodyBuilder multipartBodyBuilder = new MultipartBodyBuilder();
+                multipartBodyBuilder.part("imageFile", new ByteArrayResource(this.image) {
+                    @Override
+                    public String getFilename() {
+                        return "carga.png";
+                    }
+                }).contentType(MediaType.IMAGE_PNG);
+                yield this.webClient.post().uri(this.basePath + "/upload/{id}", this.randomProductId())
+                        .body(BodyInserters.fromMultipartData(multipartBodyBuilder.build()))
+                        .retrieve()
+                        .toBodilessEntity();
+            }
+        };
+    }
+
+    private void record(Operation operation, long startTime, Throwable error) {
+        if (startTime < this.measureStart) {
+            return;
+        }
+        if (error == null) {
+            this.latencies.get(operation).recordValue((System.nanoTime() - startTime) / 1000);
+        } else {
+            this.errors.get(operation).increment();
+            this.lastErrors.get(operation).set(error.toString());
+        }
+    }
+
+    private Product randomProduct() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new Product("Producto de carga %d".formatted(random.nextInt(1_000_000)),
+                Math.round(random.nextDouble(1.0, 5000.0) * 100) / 100.0, this.category);
+    }
+
+    private String randomProductId() {
+        int count = Math.min(this.productIdCount.get(), KNOWN_IDS);
+        String id = this.productIds.get(ThreadLocalRandom.current().nextInt(count));
+        // La posición de un alta en curso puede no estar escrita todavía
+        return id != null ? id : this.productIds.get(0);
+    }
+
+    private void addProductId(String id) {
+        this.productIds.set(Math.floorMod(this.productIdCount.getAndIncrement(), KNOWN_IDS), id);
+    }
+
+    private static byte[] pngImage() {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ImageIO.write(new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB), "png", outputStream);
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.magadiflo.api.rest.app.load;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+
+/**
+ * Prueba de carga de /api/v1 (ProductController) y /api/v2 (RouterFunctionConfig) con la misma mezcla de
+ * tráfico, sobre un mongo-java-server en memoria. Solo se ejecuta con -Pload; los histogramas quedan en
+ * target/load y con -Dload.max-p99=50ms falla si alguna operación supera ese p99.
+ */
+@Tag("load")
+@DirtiesContext
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "config.seed.source=generator",
+        "config.rate-limit.enabled=false",
+        "eureka.client.enabled=false",
+        "logging.level.root=WARN",
+        "logging.level.com.magadiflo.api.rest.app.load=INFO"
+})
+class ProductLoadTest {
+    private final static Logger LOG = LoggerFactory.getLogger(ProductLoadTest.class);
+    private final static MongoServer MONGO_SERVER = newMongoServer();
+
+    @LocalServerPort
+    private int port;
+
+    @TempDir
+    static Path uploadsPath;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        InetSocketAddress mongoAddress = MONGO_SERVER.bind();
+        registry.add("spring.data.mongodb.uri", () -> "mongodb://%s:%d/db_load".formatted(mongoAddress.getHostString(), mongoAddress.getPort()));
+        registry.add("config.seed.generator.count", () -> Integer.getInteger("load.products", 10_000));
+        registry.add("config.uploads.path", () -> uploadsPath.toString() + File.separator);
+    }
+
+    @AfterAll
+    static void shutdownMongoServer() {
+        MONGO_SERVER.shutdownNow();
+    }
+
+    @Test
+    void should_sustain_the_traffic_mix_on_the_annotated_api() throws IOException {
+        this.runLoad("/api/v1/products");
+    }
+
+    @Test
+    void should_sustain_the_traffic_mix_on_the_functional_api() throws IOException {
+        this.runLoad("/api/v2/products");
+    }
+
+    private void runLoad(String basePath) throws IOException {
+        ProductLoadGenerator.Settings settings = ProductLoadGenerator.Settings.fromSystemProperties();
+        ProductLoadGenerator.Report report = new ProductLoadGenerator("http://localhost:" + this.port, basePath, settings).run();
+
+        report.log(LOG);
+        report.writeHistograms(Path.of("target", "load"));
+
+        Assertions.assertEquals(0, report.totalErrors(), () -> "Peticiones con error: " + report.errors() + " " + report.lastErrors());
+        String maxP99 = System.getProperty("load.max-p99");
+        if (maxP99 != null) {
+            double maxP99Millis = DurationStyle.detectAndParse(maxP99).toNanos() / 1_000_000.0;
+            for (ProductLoadGenerator.Operation operation : settings.mix().keySet()) {
+                Assertions.assertTrue(report.p99Millis(operation) <= maxP99Millis,
+                        () -> "p99 de %s en %s: %.2f ms, máximo %s".formatted(operation, basePath, report.p99Millis(operation), maxP99));
+            }
+        }
+    }
+
+    private static MongoServer newMongoServer() {
+        // Con oplog, como un replica set: el feed de cambios de productos necesita change streams
+        MemoryBackend backend = new MemoryBackend();
+        backend.enableOplog();
+        return new MongoServer(backend);
+    }
+}
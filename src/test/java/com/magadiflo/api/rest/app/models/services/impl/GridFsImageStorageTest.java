@@ -0,0 +1,89 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import com.magadiflo.api.rest.app.models.dto.ImageResource;
+import com.magadiflo.api.rest.app.models.services.IImageStorage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+@SpringBootTest(properties = {"config.images.storage=gridfs", "config.images.gridfs.cache-max-size=3KB",
+        "config.images.gridfs.cache-delete-delay=200ms"})
+class GridFsImageStorageTest {
+    @Autowired
+    private IImageStorage imageStorage;
+
+    @TempDir
+    static Path uploadsPath;
+
+    @DynamicPropertySource
+    static void uploadsPath(DynamicPropertyRegistry registry) {
+        registry.add("config.uploads.path", () -> uploadsPath.toString() + File.separator);
+    }
+
+    @Test
+    void should_store_an_image_in_gridfs_and_read_it_back() throws IOException {
+        Assertions.assertInstanceOf(GridFsImageStorage.class, this.imageStorage);
+        byte[] content = randomBytes(1500, 1);
+        this.imageStorage.store("gridfs-ida-vuelta.png", this.tempFile(content)).block();
+
+        Assertions.assertEquals(Boolean.TRUE, this.imageStorage.exists("gridfs-ida-vuelta.png").block());
+        ImageResource image = this.imageStorage.load("gridfs-ida-vuelta.png").block();
+
+        Assertions.assertNotNull(image);
+        Assertions.assertEquals(content.length, image.getContentLength());
+        Assertions.assertNotNull(image.getLastModified());
+        try (InputStream inputStream = image.getResource().getInputStream()) {
+            Assertions.assertArrayEquals(content, inputStream.readAllBytes());
+        }
+        Assertions.assertNull(this.imageStorage.load("no-existe.png").block());
+    }
+
+    @Test
+    void should_keep_the_local_copies_within_the_configured_size() throws IOException, InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            String imageName = "gridfs-limite-%d.png".formatted(i);
+            this.imageStorage.store(imageName, this.tempFile(randomBytes(2048, i))).block();
+            Assertions.assertNotNull(this.imageStorage.load(imageName).block());
+        }
+
+        // El desalojo y el borrado corren en segundo plano: con 3KB solo cabe una copia de 2KB
+        long cachedBytes = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < 50 && cachedBytes > 3 * 1024; attempt++) {
+            Thread.sleep(100);
+            cachedBytes = this.cachedBytes();
+        }
+        Assertions.assertTrue(cachedBytes <= 3 * 1024, () -> "Bytes en la caché local: " + this.cachedBytes());
+        Assertions.assertTrue(cachedBytes > 0);
+    }
+
+    private Path tempFile(byte[] content) throws IOException {
+        Path tempFile = Files.createTempFile(uploadsPath, "test-", ".png");
+        return Files.write(tempFile, content);
+    }
+
+    private long cachedBytes() {
+        try (Stream<Path> files = Files.list(uploadsPath.resolve(".cache"))) {
+            return files.mapToLong(path -> path.toFile().length()).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,127 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import com.magadiflo.api.rest.app.models.documents.Category;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.services.IProductService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Signal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+// Con una ventana tan larga los lotes se escriben al llenarse, no al vencer la ventana
+@SpringBootTest(properties = {"config.products.write-behind.enabled=true", "config.products.write-behind.batch-size=5",
+        "config.products.write-behind.flush-window=1m"})
+class ProductWriteBehindTest {
+    @Autowired
+    private IProductService productService;
+    @Autowired
+    private ProductWriteBehind productWriteBehind;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void should_save_concurrent_products_in_full_batches() {
+        Assertions.assertTrue(this.productWriteBehind.isEnabled());
+        Category categoryDB = this.productService.findCategoryByName("Deporte").block();
+        DistributionSummary batchSizes = this.meterRegistry.get("product.write.behind.batch").summary();
+        long batchesBefore = batchSizes.count();
+        double productsBefore = batchSizes.totalAmount();
+
+        List<Product> products = this.saveAll(IntStream.range(0, 20)
+                .mapToObj(index -> new Product("Raqueta %d".formatted(index), 25.0 + index, categoryDB))
+                .toList()).stream()
+                .map(Signal::get)
+                .toList();
+
+        Assertions.assertEquals(20, products.stream().map(Product::getId).distinct().count());
+        Assertions.assertTrue(products.stream().allMatch(product -> product.getVersion() == 0L));
+        // Al pedir el siguiente lote bufferTimeout puede adelantar uno a medio llenar: no se fija cuántos hay
+        long batches = batchSizes.count() - batchesBefore;
+        Assertions.assertEquals(20, batchSizes.totalAmount() - productsBefore);
+        Assertions.assertTrue(batches >= 4 && batches < 20, () -> "Lotes escritos: " + batches);
+        Assertions.assertTrue(batchSizes.max() <= 5);
+        Assertions.assertEquals(20, Flux.fromIterable(products)
+                .flatMap(product -> this.productService.findById(product.getId()))
+                .count()
+                .block());
+
+        this.deleteAll(products);
+    }
+
+    @Test
+    void should_apply_only_one_of_two_saves_from_the_same_version() {
+        Category categoryDB = this.productService.findCategoryByName("Deporte").block();
+        List<Product> created = new ArrayList<>(this.saveAll(this.newProducts("Pesa", 5, categoryDB)).stream()
+                .map(Signal::get)
+                .toList());
+
+        // En el mismo lote: el segundo guardado del mismo producto no llega a Mongo
+        Product product = this.productService.findById(created.get(0).getId()).block();
+        Product staleProduct = this.productService.findById(created.get(0).getId()).block();
+        product.setPrice(30.0);
+        staleProduct.setPrice(31.0);
+        List<Product> sameBatch = new ArrayList<>(List.of(product, staleProduct));
+        sameBatch.addAll(this.newProducts("Pesa extra", 3, categoryDB));
+
+        List<Signal<Product>> results = this.saveAll(sameBatch);
+
+        Assertions.assertEquals(4, results.stream().filter(Signal::isOnNext).count());
+        Assertions.assertEquals(1L, this.productService.findById(product.getId()).block().getVersion());
+        Assertions.assertEquals(30.0, this.productService.findById(product.getId()).block().getPrice());
+        Assertions.assertInstanceOf(OptimisticLockingFailureException.class,
+                results.stream().filter(Signal::isOnError).findFirst().orElseThrow().getThrowable());
+        results.stream().filter(Signal::isOnNext).map(Signal::get).filter(saved -> saved.getVersion() == 0L).forEach(created::add);
+
+        // En lotes distintos: el segundo deja en Mongo la misma versión nueva, pero no su contenido
+        Product first = this.productService.findById(created.get(1).getId()).block();
+        Product late = this.productService.findById(created.get(1).getId()).block();
+        first.setPrice(40.0);
+        late.setPrice(41.0);
+        List<Product> firstBatch = new ArrayList<>(List.of(first));
+        firstBatch.addAll(this.newProducts("Pesa final", 4, categoryDB));
+        List<Product> lateBatch = new ArrayList<>(List.of(late));
+        lateBatch.addAll(this.newProducts("Pesa tardía", 4, categoryDB));
+
+        List<Signal<Product>> firstResults = this.saveAll(firstBatch);
+        List<Signal<Product>> lateResults = this.saveAll(lateBatch);
+
+        Assertions.assertEquals(5, firstResults.stream().filter(Signal::isOnNext).count());
+        Assertions.assertEquals(4, lateResults.stream().filter(Signal::isOnNext).count());
+        Assertions.assertInstanceOf(OptimisticLockingFailureException.class,
+                lateResults.stream().filter(Signal::isOnError).findFirst().orElseThrow().getThrowable());
+        Product stored = this.productService.findById(first.getId()).block();
+        Assertions.assertEquals(1L, stored.getVersion());
+        Assertions.assertEquals(40.0, stored.getPrice());
+        firstResults.stream().map(Signal::get).filter(saved -> saved.getVersion() == 0L).forEach(created::add);
+        lateResults.stream().filter(Signal::isOnNext).map(Signal::get).forEach(created::add);
+
+        this.deleteAll(created);
+    }
+
+    private List<Product> newProducts(String name, int count, Category category) {
+        return IntStream.range(0, count)
+                .mapToObj(index -> new Product("%s %d".formatted(name, index), 10.0 + index, category))
+                .toList();
+    }
+
+    private List<Signal<Product>> saveAll(List<Product> products) {
+        return Flux.fromIterable(products)
+                .flatMap(product -> this.productService.saveProduct(product).materialize())
+                .filter(signal -> signal.isOnNext() || signal.isOnError())
+                .collectList()
+                .block();
+    }
+
+    private void deleteAll(List<Product> products) {
+        Flux.fromIterable(products).flatMap(product -> this.productService.deleteById(product.getId(), null)).blockLast();
+    }
+}
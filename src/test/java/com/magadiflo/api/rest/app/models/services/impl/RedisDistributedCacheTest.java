@@ -0,0 +1,112 @@
+package com.magadiflo.api.rest.app.models.services.impl;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.fppt.jedismock.RedisServer;
+import com.magadiflo.api.rest.app.models.documents.Product;
+import com.magadiflo.api.rest.app.models.services.IDistributedCache;
+import com.magadiflo.api.rest.app.models.services.IProductService;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.protocol.ProtocolVersion;
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.data.redis.LettuceClientConfigurationBuilderCustomizer;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Collections;
+
+@AutoConfigureWebTestClient
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK, properties = "config.cache.redis.enabled=true")
+class RedisDistributedCacheTest {
+    @Autowired
+    private WebTestClient webTestClient;
+    @Autowired
+    private IProductService productService;
+    @Autowired
+    private IDistributedCache distributedCache;
+    @Autowired
+    private AsyncCache<String, Product> productCache;
+    @Autowired
+    private ReactiveStringRedisTemplate redisTemplate;
+
+    static final RedisServer redisServer = startRedis();
+
+    @DynamicPropertySource
+    static void redis(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", redisServer::getHost);
+        registry.add("spring.data.redis.port", redisServer::getBindPort);
+    }
+
+    @TestConfiguration
+    static class RedisMockConfig {
+        // jedis-mock solo habla RESP2
+        @Bean
+        LettuceClientConfigurationBuilderCustomizer resp2() {
+            return builder -> builder.clientOptions(ClientOptions.builder().protocolVersion(ProtocolVersion.RESP2).build());
+        }
+    }
+
+    private static RedisServer startRedis() {
+        try {
+            return RedisServer.newRedisServer().start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    void should_share_cached_products_between_instances_through_redis() {
+        Assertions.assertInstanceOf(RedisDistributedCache.class, this.distributedCache);
+        Product productDB = this.productService.findByName("Bicicleta Monteñera").block();
+        String key = "service-product-api-rest:products:" + productDB.getId();
+        this.productCache.synchronous().invalidate(productDB.getId());
+
+        this.webTestClient.get()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .exchange()
+                .expectStatus().isOk();
+        String cached = this.redisTemplate.opsForValue().get(key).block();
+        Assertions.assertNotNull(cached);
+
+        // Otra instancia cambia el producto: deja su versión en Redis y avisa por el canal de invalidaciones
+        Document changed = Document.parse(cached).append("name", "Bicicleta de ruta");
+        this.redisTemplate.opsForValue().set(key, changed.toJson()).block();
+        this.redisTemplate.convertAndSend("service-product-api-rest:invalidations", "products:" + productDB.getId()).block();
+
+        String name = this.productService.findById(productDB.getId())
+                .map(Product::getName)
+                .filter("Bicicleta de ruta"::equals)
+                .repeatWhenEmpty(50, repeats -> repeats.delayElements(Duration.ofMillis(100)))
+                .block(Duration.ofSeconds(10));
+        Assertions.assertEquals("Bicicleta de ruta", name);
+
+        // Un guardado en esta instancia borra la entrada compartida antes de responder
+        Product productRequest = new Product("Bicicleta Monteñera", productDB.getPrice(), productDB.getCategory());
+        this.webTestClient.put()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(productRequest)
+                .exchange()
+                .expectStatus().isOk();
+        Assertions.assertEquals(Boolean.FALSE, this.redisTemplate.hasKey(key).block());
+
+        this.webTestClient.get()
+                .uri("/api/v1/products/{id}", Collections.singletonMap("id", productDB.getId()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("Bicicleta Monteñera");
+    }
+}